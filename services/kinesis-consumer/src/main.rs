@@ -14,6 +14,7 @@
  *
  */
 
+use std::borrow::Cow;
 use std::env;
 use aws_config::meta::region::RegionProviderChain;
 use aws_lambda_events::event::kinesis::KinesisEvent;
@@ -26,15 +27,34 @@ use persistence::DynamoDBStore;
 use tracing::log::info;
 
 mod model {
+    pub mod aggregation;
     pub mod item;
     pub mod tracking;
 }
 
 // Import the Item struct into the current scope
+use model::aggregation::AggregatedRecord;
 use model::item::Item;
 use model::tracking::TrackingEvent;
 use crate::persistence::StorePut;
 
+// Kinesis records written with KPL aggregation start with this magic number and end with an MD5 digest
+const KPL_MAGIC: [u8; 4] = [0xF3, 0x89, 0x9A, 0xC2];
+const KPL_DIGEST_LEN: usize = 16;
+
+/// Returns the TrackingEvent messages carried by a Kinesis record: many for an aggregated record,
+/// the record itself otherwise.
+fn user_records(data: &[u8]) -> Vec<Cow<[u8]>> {
+    if data.len() < KPL_MAGIC.len() + KPL_DIGEST_LEN || !data.starts_with(&KPL_MAGIC) {
+        return vec![Cow::Borrowed(data)];
+    }
+
+    // The digest isn't checked again, Kinesis already guarantees the integrity of the record
+    let message = &data[KPL_MAGIC.len()..data.len() - KPL_DIGEST_LEN];
+    let mut reader = BytesReader::from_bytes(message);
+    let aggregated = AggregatedRecord::from_reader(&mut reader, message).expect("Cannot read AggregatedRecord");
+    aggregated.records.into_iter().map(|record| record.data).collect()
+}
 
 /// This is the main body for the function.
 /// Write your code inside it.
@@ -48,24 +68,26 @@ async fn function_handler(event: LambdaEvent<KinesisEvent>, store: &DynamoDBStor
 
     for record in protobuf_data.records {
         let data = record.kinesis.data;
-        let mut reader = BytesReader::from_bytes(&data);
-        let event = TrackingEvent::from_reader(&mut reader, &data).expect("Cannot read TrackingEvent");
-
-        let my_item = Item {
-            program_id: event.programid.to_string(),
-            checksum: event.checksum.to_string(),
-            customer_id: event.customer_id,
-            user_agent: event.user_agent.to_string(),
-            program_name: event.program_name.to_string(),
-            customer_name: event.customer_name.to_string(),
-            is_valid: event.is_valid,
-            message_id: event.message_id.to_string()
-        };
-
-        info!("Received item '{}'", my_item);
-
-        store.put(&my_item).await.expect("Something went wrong!");
-
+        for payload in user_records(&data) {
+            let mut reader = BytesReader::from_bytes(&payload);
+            let event = TrackingEvent::from_reader(&mut reader, &payload).expect("Cannot read TrackingEvent");
+
+            let my_item = Item {
+                program_id: event.programid.to_string(),
+                checksum: event.checksum.to_string(),
+                customer_id: event.customer_id,
+                user_agent: event.user_agent.to_string(),
+                program_name: event.program_name.to_string(),
+                customer_name: event.customer_name.to_string(),
+                is_valid: event.is_valid,
+                message_id: event.message_id.to_string()
+            };
+
+            info!("Received item '{}'", my_item);
+
+            store.put(&my_item).await.expect("Something went wrong!");
+
+        }
     }
 
     Ok(())
@@ -100,3 +122,90 @@ async fn main() -> Result<(), Error> {
     let func = service_fn(move |event| async move { function_handler(event, ddb_store_ref).await });
     run(func).await
 }
+
+#[cfg(test)]
+mod tests {
+    use super::*;
+    use crate::model::aggregation::Record;
+    use quick_protobuf::{MessageWrite, Writer};
+
+    // Written by the tracking service's RecordAggregator with one hash range, for the user records
+    // "event-1", "event-2" and "event-3" with the partition keys "pk-1", "pk-2" and "pk-3"
+    const AGGREGATED: [u8; 77] = [
+        0xF3, 0x89, 0x9A, 0xC2, 0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x31, 0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x32,
+        0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x33, 0x1A, 0x0B, 0x08, 0x00, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E,
+        0x74, 0x2D, 0x31, 0x1A, 0x0B, 0x08, 0x01, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E, 0x74, 0x2D, 0x32,
+        0x1A, 0x0B, 0x08, 0x02, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E, 0x74, 0x2D, 0x33, 0xE2, 0x91, 0x86,
+        0xA0, 0xF2, 0xAD, 0xA8, 0x86, 0x24, 0xA2, 0xFC, 0x9C, 0x80, 0xB9, 0xD4, 0x17,
+    ];
+
+    // Written by RecordAggregator with four hash ranges for "event-1" to "event-6" with the partition
+    // keys "pk-1" to "pk-6"; the records are sent with the explicit hash keys of two different ranges
+    const AGGREGATED_RANGES: [[u8; 77]; 2] = [
+        [
+            0xF3, 0x89, 0x9A, 0xC2, 0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x33, 0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x34,
+            0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x36, 0x1A, 0x0B, 0x08, 0x00, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E,
+            0x74, 0x2D, 0x33, 0x1A, 0x0B, 0x08, 0x01, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E, 0x74, 0x2D, 0x34,
+            0x1A, 0x0B, 0x08, 0x02, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E, 0x74, 0x2D, 0x36, 0xFE, 0xEA, 0x96,
+            0x45, 0x58, 0x92, 0xEC, 0xA1, 0xC5, 0xCF, 0x08, 0xED, 0x4C, 0x6A, 0xD2, 0xFC,
+        ],
+        [
+            0xF3, 0x89, 0x9A, 0xC2, 0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x31, 0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x32,
+            0x0A, 0x04, 0x70, 0x6B, 0x2D, 0x35, 0x1A, 0x0B, 0x08, 0x00, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E,
+            0x74, 0x2D, 0x31, 0x1A, 0x0B, 0x08, 0x01, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E, 0x74, 0x2D, 0x32,
+            0x1A, 0x0B, 0x08, 0x02, 0x1A, 0x07, 0x65, 0x76, 0x65, 0x6E, 0x74, 0x2D, 0x35, 0xA1, 0x29, 0xB4,
+            0x32, 0x54, 0x45, 0x3E, 0x9F, 0x08, 0x15, 0x62, 0x79, 0x14, 0xC0, 0x1D, 0x32,
+        ],
+    ];
+
+    fn decoded(data: &[u8]) -> Vec<Vec<u8>> {
+        user_records(data).into_iter().map(|record| record.into_owned()).collect()
+    }
+
+    #[test]
+    fn unpacks_the_user_records_of_an_aggregated_record() {
+        assert_eq!(decoded(&AGGREGATED), vec![b"event-1".to_vec(), b"event-2".to_vec(), b"event-3".to_vec()]);
+    }
+
+    #[test]
+    fn unpacks_aggregated_records_of_several_hash_ranges() {
+        let mut events: Vec<Vec<u8>> = AGGREGATED_RANGES.iter().flat_map(|data| decoded(data)).collect();
+        events.sort();
+        let expected: Vec<Vec<u8>> = (1..=6).map(|i| format!("event-{}", i).into_bytes()).collect();
+        assert_eq!(events, expected);
+    }
+
+    #[test]
+    fn unpacks_records_with_explicit_hash_keys() {
+        // As the KPL writes them: each user record refers to an entry of the explicit hash key table
+        let aggregated = AggregatedRecord {
+            partition_key_table: vec![Cow::Borrowed("pk-1"), Cow::Borrowed("pk-2")],
+            explicit_hash_key_table: vec![Cow::Borrowed("0"), Cow::Borrowed("170141183460469231731687303715884105728")],
+            records: vec![
+                Record { partition_key_index: 0, explicit_hash_key_index: Some(1), data: Cow::Borrowed(&b"event-1"[..]), tags: vec![] },
+                Record { partition_key_index: 1, explicit_hash_key_index: Some(0), data: Cow::Borrowed(&b"event-2"[..]), tags: vec![] },
+                Record { partition_key_index: 0, explicit_hash_key_index: Some(1), data: Cow::Borrowed(&b"event-3"[..]), tags: vec![] },
+            ],
+        };
+        let mut data = KPL_MAGIC.to_vec();
+        aggregated.write_message(&mut Writer::new(&mut data)).expect("Cannot write AggregatedRecord");
+        // The digest isn't checked
+        data.extend_from_slice(&[0; KPL_DIGEST_LEN]);
+
+        assert_eq!(decoded(&data), vec![b"event-1".to_vec(), b"event-2".to_vec(), b"event-3".to_vec()]);
+    }
+
+    #[test]
+    fn passes_records_that_are_not_aggregated_through() {
+        // A TrackingEvent written without aggregation, and a record that starts with the magic number but
+        // is too short to be aggregated
+        let plain = b"\x0a\x06212312\x12\x03123";
+        let short: [u8; 5] = [0xF3, 0x89, 0x9A, 0xC2, 0x0A];
+
+        for data in [&plain[..], &short[..]] {
+            let records = user_records(data);
+            assert_eq!(records.len(), 1);
+            assert!(matches!(records[0], Cow::Borrowed(record) if record == data));
+        }
+    }
+}
@@ -51,10 +51,11 @@ async fn function_handler(event: LambdaEvent<KinesisEvent>) -> Result<(), Error>
         let map = struct_to_map(&item);
         // Connect to Redis
         let mut redis_conn = get_redis_client()?;
+        let redis_key = format!("{}{}", get_key_prefix(), item.program_id);
 
         for (key, value) in map.into_iter() {
             println!("{} / {}", key, value);
-            redis_conn.hset(&item.program_id, key, value.to_string())?;
+            redis_conn.hset(&redis_key, key, value.to_string())?;
         }
     }
 
@@ -84,6 +85,11 @@ async fn main() -> Result<(), Error> {
     run(service_fn(function_handler)).await
 }
 
+// Prefix of the program keys, must match tracking.redis.key-prefix of the tracking service
+fn get_key_prefix() -> String {
+    env::var("REDIS_KEY_PREFIX").unwrap_or_default()
+}
+
 // Initialize Redis client
 fn get_redis_client() -> redis::RedisResult<redis::cluster::ClusterConnection> {
     let redis_host = match env::var_os("REDIS_HOST") {
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.codec.ProgramCodec;
+import com.amazon.codec.TrackingEventEncoder;
+import com.amazon.codec.TrackingMessageCodec;
+import com.amazon.util.Constants;
+import com.amazon.vo.Program;
+import com.amazon.vo.TrackingMessage;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The event bus hops of a tracking event as HttpVerticle makes them: the program is looked up with the
+ * CacheVerticle, answered from the near cache, and the tracking event is handed to a stub of the
+ * KinesisVerticle that encodes it like the real one and replies right away. HTTP is left out, so this
+ * shows the cost of the hops and the codecs; {@link HttpScalingBenchmark} covers the whole request.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=EventBusRoundTripBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(16)
+public class EventBusRoundTripBenchmark {
+
+    private static final Program PROGRAM = new Program("212312", "program1", "123", 9123, "Customer1", true);
+    private static final String USER_AGENT =
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.1 Safari/605.1.15";
+
+    @Param({"1", "4"})
+    public int instances;
+
+    private Vertx vertx;
+    private EventBus eb;
+    private final LongAdder encodedBytes = new LongAdder();
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        eb = vertx.eventBus();
+        eb.registerDefaultCodec(Program.class, new ProgramCodec());
+        eb.registerDefaultCodec(TrackingMessage.class, new TrackingMessageCodec());
+        eb.<TrackingMessage>consumer(Constants.KINESIS_EVENTBUS_ADDRESS, this::encode);
+
+        vertx.deployVerticle("com.amazon.verticles.CacheVerticle", new DeploymentOptions().setInstances(instances))
+                .toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        eb.send(Constants.CACHE_STORE_EVENTBUS_ADDRESS, PROGRAM);
+
+        // Make sure the program reached the cache before measuring
+        roundTrip();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    private void encode(Message<TrackingMessage> message) {
+        encodedBytes.add(TrackingEventEncoder.encode(message.body()).length);
+        message.reply("OK");
+    }
+
+    @Benchmark
+    public Object roundTrip() throws Exception {
+        return eb
+                .<Program>request(Constants.CACHE_EVENTBUS_ADDRESS, PROGRAM.getProgramId())
+                .compose(res -> res.body() == null
+                        ? Future.failedFuture("Program " + PROGRAM.getProgramId() + " is not cached")
+                        : eb.request(Constants.KINESIS_EVENTBUS_ADDRESS,
+                                new TrackingMessage(UUID.randomUUID().toString(), USER_AGENT, res.body())))
+                .map(Message::body)
+                .toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.codec.ProgramCodec;
+import com.amazon.codec.TrackingMessageCodec;
+import com.amazon.util.Constants;
+import com.amazon.vo.Program;
+import com.amazon.vo.TrackingMessage;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
+import io.vertx.core.http.HttpClientResponse;
+import io.vertx.core.http.HttpMethod;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Throughput of GET /event/:eventID served from the near cache, with HttpVerticle and CacheVerticle
+ * deployed as 1..N instances. Kinesis is replaced by a no-op consumer.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=HttpScalingBenchmark}. The client
+ * runs in its own Vert.x instance, so give the machine at least twice as many cores as the largest
+ * instance count to see the scaling of the server side.
+ * <p>
+ * Requests are started on the event loop of the client rather than on the benchmark threads: called from
+ * 64 threads of its own, the HTTP client occasionally never completed a request, which stalled the
+ * iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(64)
+public class HttpScalingBenchmark {
+
+    private static final Program PROGRAM = new Program("212312", "program1", "123", 9123, "Customer1", true);
+
+    @Param({"1", "2", "4", "8"})
+    public int instances;
+
+    private Vertx server;
+    private Vertx client;
+    private Context clientContext;
+    private HttpClient httpClient;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        server = Vertx.vertx();
+        server.eventBus().registerDefaultCodec(Program.class, new ProgramCodec());
+        server.eventBus().registerDefaultCodec(TrackingMessage.class, new TrackingMessageCodec());
+        server.eventBus().consumer(Constants.KINESIS_EVENTBUS_ADDRESS, message -> message.reply("OK"));
+
+        DeploymentOptions options = new DeploymentOptions().setInstances(instances);
+        server.deployVerticle("com.amazon.verticles.CacheVerticle", options)
+                .compose(id -> server.deployVerticle("com.amazon.verticles.HttpVerticle", options))
+                .toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        server.eventBus().send(Constants.CACHE_STORE_EVENTBUS_ADDRESS, PROGRAM);
+
+        client = Vertx.vertx();
+        clientContext = client.getOrCreateContext();
+        httpClient = client.createHttpClient(new HttpClientOptions()
+                .setDefaultHost("localhost")
+                .setDefaultPort(8080)
+                .setKeepAlive(true)
+                .setMaxPoolSize(64));
+
+        // Make sure the program reached the cache before measuring
+        int status = get(response -> Future.succeededFuture(response.statusCode())).get(30, TimeUnit.SECONDS);
+        if (status != 200) {
+            throw new IllegalStateException("Unexpected status " + status);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        server.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Buffer trackingEvent() throws Exception {
+        return get(HttpClientResponse::body).get(30, TimeUnit.SECONDS);
+    }
+
+    private <T> CompletableFuture<T> get(Function<HttpClientResponse, Future<T>> handler) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        clientContext.runOnContext(v -> httpClient.request(HttpMethod.GET, "/event/" + PROGRAM.getProgramId())
+                .compose(request -> request.send())
+                .compose(handler)
+                .onSuccess(result::complete)
+                .onFailure(result::completeExceptionally));
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.util.LogSampler;
+import com.amazon.vo.Program;
+import org.jboss.logmanager.handlers.AsyncHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+/**
+ * Logging cost of a lookup answered from the near cache, on four threads standing in for event loops.
+ * <ul>
+ *     <li>{@code perEventInfo} logs as the cache verticle used to, two concatenated INFO lines per lookup</li>
+ *     <li>{@code guardedFine} logs as it does now with the production level INFO: a level check</li>
+ *     <li>{@code sampledFine} logs as it does now with FINE enabled, one line per second</li>
+ * </ul>
+ * The console is replaced by a stream that discards its output, flushed after every record like the console
+ * handler. With {@code handler=sync} it is written on the logging thread, with {@code handler=async} by the
+ * background thread of an {@link AsyncHandler} that drops records while its queue is full.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=LoggingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class LoggingBenchmark {
+
+    private static final Program PROGRAM = new Program("212312", "program1", "123", 9123, "Customer1", true);
+
+    @Param({"sync", "async"})
+    public String handler;
+
+    private Logger infoLogger;
+    private Logger fineLogger;
+    private Handler consoleHandler;
+    private final LogSampler sampler = new LogSampler(1000);
+
+    @Setup
+    public void setUp() {
+        StreamHandler console = new StreamHandler(OutputStream.nullOutputStream(), new SimpleFormatter()) {
+            @Override
+            public synchronized void publish(LogRecord record) {
+                super.publish(record);
+                flush();
+            }
+        };
+        console.setLevel(Level.ALL);
+
+        if ("async".equals(handler)) {
+            AsyncHandler asyncHandler = new AsyncHandler(8192);
+            asyncHandler.setOverflowAction(AsyncHandler.OverflowAction.DISCARD);
+            asyncHandler.addHandler(console);
+            consoleHandler = asyncHandler;
+        } else {
+            consoleHandler = console;
+        }
+
+        infoLogger = logger("com.amazon.benchmarks.info", Level.INFO);
+        fineLogger = logger("com.amazon.benchmarks.fine", Level.FINE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        consoleHandler.close();
+    }
+
+    private Logger logger(String name, Level level) {
+        Logger logger = Logger.getLogger(name);
+        logger.setUseParentHandlers(false);
+        logger.setLevel(level);
+        for (Handler h : logger.getHandlers()) {
+            logger.removeHandler(h);
+        }
+        logger.addHandler(consoleHandler);
+        return logger;
+    }
+
+    @Benchmark
+    public Program perEventInfo() {
+        String programId = PROGRAM.getProgramId();
+        infoLogger.info("Trying to find the following data: " + programId);
+        infoLogger.info("Message " + PROGRAM + " found in cache --> HttpVerticle");
+        return PROGRAM;
+    }
+
+    @Benchmark
+    public Program guardedFine() {
+        return trace(infoLogger);
+    }
+
+    @Benchmark
+    public Program sampledFine() {
+        return trace(fineLogger);
+    }
+
+    private Program trace(Logger logger) {
+        String programId = PROGRAM.getProgramId();
+        long suppressed;
+        if (logger.isLoggable(Level.FINE) && (suppressed = sampler.sample()) >= 0) {
+            logger.fine("Program " + programId + " found in cache" + LogSampler.suppressed(suppressed));
+        }
+        return PROGRAM;
+    }
+}
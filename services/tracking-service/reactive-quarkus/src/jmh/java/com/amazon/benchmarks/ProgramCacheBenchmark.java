@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.cache.ProgramCache;
+import com.amazon.util.Constants;
+import com.amazon.vo.Program;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Lookups and stores of the near cache shared by the cache verticle instances, on four threads standing in
+ * for their event loops. {@code read} only looks programs up, {@code readWrite} has one of the threads
+ * store programs, as pub/sub updates and Redis lookups do, while the others look them up.
+ * <p>
+ * With {@code maxEntries} below the number of programs, lookups miss and stores evict.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=ProgramCacheBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProgramCacheBenchmark {
+
+    // A power of two, so that cursors wrap with a mask
+    private static final int PROGRAMS = 16384;
+
+    private static final Function<String, Future<Program>> NO_REFRESH = programId -> Future.succeededFuture();
+
+    @Param({"100000", "4096"})
+    public long maxEntries;
+
+    private Vertx vertx;
+    private ProgramCache cache;
+    private final Program[] programs = new Program[PROGRAMS];
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next = ThreadLocalRandom.current().nextInt(PROGRAMS);
+
+        int next() {
+            next = (next + 1) & (PROGRAMS - 1);
+            return next;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        vertx = Vertx.vertx();
+        cache = ProgramCache.get(vertx, new JsonObject().put(Constants.CACHE_MAX_ENTRIES, maxEntries));
+        for (int i = 0; i < PROGRAMS; i++) {
+            programs[i] = new Program(Integer.toString(100000 + i), "program" + i, "123", i, "Customer" + i, true);
+            cache.put(programs[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Program read(Cursor cursor) {
+        return cache.getIfPresent(programs[cursor.next()].getProgramId(), NO_REFRESH);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Program readWriteGet(Cursor cursor) {
+        return cache.getIfPresent(programs[cursor.next()].getProgramId(), NO_REFRESH);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void readWritePut(Cursor cursor) {
+        cache.put(programs[cursor.next()]);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.tracing.Span;
+import com.amazon.tracing.Tracer;
+import com.amazon.util.Constants;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracing cost of one tracking event answered after a Redis lookup: the span of the HTTP request, and a
+ * client and a consumer span for each of the cache, Redis and Kinesis hops, including the headers that
+ * carry the context from one to the other. Spans are exported to a temporary file as they are in production.
+ * <p>
+ * {@code sampleRatio=off} disables tracing, the other values trace that share of the requests.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=TracingBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class TracingBenchmark {
+
+    private static final String[] HOPS = {"cache", "redis", "kinesis"};
+
+    @Param({"off", "0.01", "1"})
+    public String sampleRatio;
+
+    private final DeliveryOptions deliveryOptions = new DeliveryOptions();
+    private Vertx vertx;
+    private File spans;
+    private Tracer tracer;
+
+    @Setup
+    public void setUp() throws Exception {
+        spans = File.createTempFile("tracing-benchmark", ".json");
+        JsonObject config = new JsonObject()
+                .put(Constants.TRACING_ENABLED, !"off".equals(sampleRatio))
+                .put(Constants.TRACING_SAMPLE_RATIO, "off".equals(sampleRatio) ? 0.0 : Double.parseDouble(sampleRatio))
+                .put(Constants.TRACING_FILE, spans.getAbsolutePath());
+        vertx = Vertx.vertx();
+        tracer = Tracer.get(vertx, config);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        vertx.close().toCompletionStage().toCompletableFuture().get(30, TimeUnit.SECONDS);
+        spans.delete();
+    }
+
+    @Benchmark
+    public Span trackingEvent() {
+        Span request = tracer.startServer("GET /event/:eventID", null);
+        Span parent = request;
+        for (String hop : HOPS) {
+            Span client = tracer.startClient(hop, parent);
+            Span consumer = tracer.startConsumer(hop, client.propagate(deliveryOptions).getHeaders());
+            consumer.end();
+            client.end();
+            parent = consumer;
+        }
+        request.setAttribute("http.status_code", 200).end();
+        return request;
+    }
+}
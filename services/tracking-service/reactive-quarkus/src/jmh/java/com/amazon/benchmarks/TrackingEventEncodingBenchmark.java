@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.codec.TrackingEventEncoder;
+import com.amazon.proto.TrackingEventProtos;
+import com.amazon.vo.Program;
+import com.amazon.vo.TrackingMessage;
+import org.openjdk.jmh.annotations.*;
+import software.amazon.awssdk.core.SdkBytes;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a tracking event into the data of a Kinesis record, with the generated protobuf builder and
+ * a copy into {@link SdkBytes} as opposed to {@link TrackingEventEncoder}.
+ * <p>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=TrackingEventEncodingBenchmark}; the
+ * {@code gc.alloc.rate.norm} lines of the GC profiler show the bytes allocated per event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackingEventEncodingBenchmark {
+
+    private static final Program PROGRAM = new Program("212312", "program1", "123", 9123, "Customer1", true);
+
+    private TrackingMessage trackingMessage;
+
+    @Setup
+    public void setUp() {
+        trackingMessage = new TrackingMessage(UUID.randomUUID().toString(),
+                "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.1 Safari/605.1.15",
+                PROGRAM);
+    }
+
+    @Benchmark
+    public SdkBytes builder() {
+        TrackingEventProtos.TrackingEvent trackingEvent = TrackingEventProtos.TrackingEvent.newBuilder()
+                .setProgramid(trackingMessage.getProgramId())
+                .setChecksum(trackingMessage.getChecksum())
+                .setCustomerId(trackingMessage.getCustomerId())
+                .setUserAgent(trackingMessage.getUserAgent())
+                .setProgramName(trackingMessage.getProgramName())
+                .setCustomerName(trackingMessage.getCustomerName())
+                .setIsValid(trackingMessage.isValid())
+                .setMessageId(trackingMessage.getMessageId())
+                .build();
+        return SdkBytes.fromByteArray(trackingEvent.toByteArray());
+    }
+
+    @Benchmark
+    public SdkBytes encoder() {
+        return SdkBytes.fromByteArrayUnsafe(TrackingEventEncoder.encode(trackingMessage));
+    }
+}
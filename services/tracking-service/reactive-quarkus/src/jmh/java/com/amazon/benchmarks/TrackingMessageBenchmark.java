@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.benchmarks;
+
+import com.amazon.codec.TrackingMessageCodec;
+import com.amazon.vo.Program;
+import com.amazon.vo.TrackingMessage;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.Json;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of tracking events and programs:
+ * <ul>
+ *     <li>{@code encodeJson} renders the response of {@code /event/:eventID}</li>
+ *     <li>{@code decodeProgramJson} parses a program as published by the redis-updater and streamed by
+ *     {@code /cache/fill}</li>
+ *     <li>{@code encodeWire} and {@code decodeWire} run the event bus codec of a clustered deployment</li>
+ * </ul>
+ * Run with {@code mvn -Pjmh test-compile exec:exec -Djmh.includes=TrackingMessageBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TrackingMessageBenchmark {
+
+    private static final Program PROGRAM = new Program("212312", "program1", "123", 9123, "Customer1", true);
+
+    private final TrackingMessageCodec codec = new TrackingMessageCodec();
+    private TrackingMessage trackingMessage;
+    private String programJson;
+    private Buffer wire;
+
+    @Setup
+    public void setUp() {
+        trackingMessage = new TrackingMessage(UUID.randomUUID().toString(),
+                "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/17.1 Safari/605.1.15",
+                PROGRAM);
+        programJson = Json.encode(PROGRAM);
+        wire = Buffer.buffer();
+        codec.encodeToWire(wire, trackingMessage);
+    }
+
+    @Benchmark
+    public String encodeJson() {
+        return Json.encode(trackingMessage);
+    }
+
+    @Benchmark
+    public Program decodeProgramJson() {
+        return Json.decodeValue(programJson, Program.class);
+    }
+
+    @Benchmark
+    public Buffer encodeWire() {
+        Buffer buffer = Buffer.buffer(256);
+        codec.encodeToWire(buffer, trackingMessage);
+        return buffer;
+    }
+
+    @Benchmark
+    public TrackingMessage decodeWire() {
+        return codec.decodeFromWire(0, wire);
+    }
+}
@@ -15,12 +15,27 @@
  */
 package com.amazon;
 
+import com.amazon.codec.ProgramCodec;
+import com.amazon.codec.TrackingMessageCodec;
+import com.amazon.util.TrackingMetrics;
+import com.amazon.vo.Program;
+import com.amazon.vo.TrackingMessage;
 import io.quarkus.runtime.Quarkus;
 import io.quarkus.runtime.QuarkusApplication;
 import io.quarkus.runtime.annotations.QuarkusMain;
+import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.json.JsonObject;
+import org.eclipse.microprofile.config.Config;
+import org.eclipse.microprofile.config.ConfigProvider;
 import org.jboss.logging.Logger;
 
+import static com.amazon.util.Constants.CACHE_INSTANCES;
+import static com.amazon.util.Constants.CONFIG_PREFIX;
+import static com.amazon.util.Constants.HTTP_INSTANCES;
+import static com.amazon.util.Constants.METRICS_ENABLED;
+
 @QuarkusMain
 public class VertxResource implements QuarkusApplication {
 
@@ -32,29 +47,80 @@ public class VertxResource implements QuarkusApplication {
 
     static final String APP_VERSION = "2.905";
 
+    private static final int CPU_CORES = Runtime.getRuntime().availableProcessors();
+
     @Override
     public int run(String... args) throws Exception {
 
         LOGGER.info("Starting application version: " + APP_VERSION);
 
-        Vertx vertx = Vertx.vertx();
-        vertx.deployVerticle("com.amazon.verticles.HttpVerticle").onFailure(
+        Config config = ConfigProvider.getConfig();
+
+        VertxOptions vertxOptions = new VertxOptions();
+        if (config.getOptionalValue(METRICS_ENABLED, Boolean.class).orElse(true)) {
+            vertxOptions.setMetricsOptions(TrackingMetrics.options());
+        }
+        Vertx vertx = Vertx.vertx(vertxOptions);
+        vertx.eventBus().registerDefaultCodec(Program.class, new ProgramCodec());
+        vertx.eventBus().registerDefaultCodec(TrackingMessage.class, new TrackingMessageCodec());
+
+        // Every HttpVerticle instance listens on the same port, Vert.x spreads the connections
+        // round-robin across the instances and thus across the event loops
+        int httpInstances = config.getOptionalValue(HTTP_INSTANCES, Integer.class).orElse(CPU_CORES);
+        int cacheInstances = config.getOptionalValue(CACHE_INSTANCES, Integer.class).orElse(CPU_CORES);
+
+        LOGGER.info("Deploying " + httpInstances + " HTTP and " + cacheInstances + " cache verticle instances");
+
+        JsonObject verticleConfig = verticleConfig(config);
+
+        vertx.deployVerticle("com.amazon.verticles.HttpVerticle", new DeploymentOptions().setConfig(verticleConfig).setInstances(httpInstances)).onFailure(
                 t -> LOGGER.info("Deployment failed")
         );
 
-        vertx.deployVerticle("com.amazon.verticles.CacheVerticle").onFailure(
+        vertx.deployVerticle("com.amazon.verticles.CacheVerticle", new DeploymentOptions().setConfig(verticleConfig).setInstances(cacheInstances)).onFailure(
                 t -> LOGGER.info("Deployment failed")
         );
 
-        vertx.deployVerticle("com.amazon.verticles.KinesisVerticle").onFailure(
+        vertx.deployVerticle("com.amazon.verticles.KinesisVerticle", new DeploymentOptions().setConfig(verticleConfig)).onFailure(
                 t -> LOGGER.info("Deployment failed")
         );
 
-        vertx.deployVerticle("com.amazon.verticles.RedisVerticle").onFailure(
+        vertx.deployVerticle("com.amazon.verticles.RedisVerticle", new DeploymentOptions().setConfig(verticleConfig)).onFailure(
                 t -> LOGGER.info("Deployment failed")
         );
 
         Quarkus.waitForExit();
         return 0;
     }
-}
\ No newline at end of file
+
+    /**
+     * Copies all tracking.* properties into the verticle configuration. Environment variables override
+     * the values from application.properties as usual, as long as the property is declared there.
+     */
+    private static JsonObject verticleConfig(Config config) {
+        JsonObject verticleConfig = new JsonObject();
+        for (String name : config.getPropertyNames()) {
+            if (name.startsWith(CONFIG_PREFIX)) {
+                config.getOptionalValue(name, String.class)
+                        .ifPresent(value -> verticleConfig.put(name, toJsonValue(value.trim())));
+            }
+        }
+        return verticleConfig;
+    }
+
+    private static Object toJsonValue(String value) {
+        if ("true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value)) {
+            return Boolean.parseBoolean(value);
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return value;
+        }
+    }
+}
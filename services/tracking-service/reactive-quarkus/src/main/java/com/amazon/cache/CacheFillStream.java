@@ -0,0 +1,151 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.cache;
+
+import com.amazon.util.Constants;
+import com.amazon.vo.Program;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.streams.WriteStream;
+
+/**
+ * Stores programs in the near cache and in Redis, for {@code /cache/fill}.
+ * <p>
+ * Every program is handed to the cache verticles and to the Redis verticle, which writes it with the
+ * next pipelined batch. The write queue is full while {@code maxPending} programs wait for Redis,
+ * so a source piped into this stream is paused instead of queueing the whole data set on the event bus.
+ * {@link #end()} completes once Redis has acknowledged every program; programs Redis rejected are
+ * counted, not failed.
+ * <p>
+ * Instances must only be used from one context.
+ */
+public class CacheFillStream implements WriteStream<Program> {
+
+    private final EventBus eb;
+    private int maxPending;
+
+    private long written;
+    private long stored;
+    private long failed;
+    private int pending;
+
+    private Handler<Void> drainHandler;
+    private Promise<Void> ended;
+
+    public CacheFillStream(EventBus eb, int maxPending) {
+        this.eb = eb;
+        this.maxPending = maxPending;
+    }
+
+    @Override
+    public CacheFillStream exceptionHandler(Handler<Throwable> handler) {
+        // Failed stores are counted instead of being reported as errors of the stream
+        return this;
+    }
+
+    @Override
+    public Future<Void> write(Program program) {
+        written++;
+        pending++;
+        eb.send(Constants.CACHE_STORE_EVENTBUS_ADDRESS, program);
+
+        Promise<Void> promise = Promise.promise();
+        eb
+                .request(Constants.REDIS_STORE_EVENTBUS_ADDRESS, program)
+                .onComplete(ar -> {
+                    pending--;
+                    if (ar.succeeded()) {
+                        stored++;
+                    } else {
+                        failed++;
+                    }
+                    promise.complete();
+                    afterStore();
+                });
+        return promise.future();
+    }
+
+    @Override
+    public void write(Program program, Handler<AsyncResult<Void>> handler) {
+        write(program).onComplete(handler);
+    }
+
+    @Override
+    public Future<Void> end() {
+        if (ended == null) {
+            ended = Promise.promise();
+            afterStore();
+        }
+        return ended.future();
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<Void>> handler) {
+        end().onComplete(handler);
+    }
+
+    @Override
+    public CacheFillStream setWriteQueueMaxSize(int maxSize) {
+        this.maxPending = maxSize;
+        return this;
+    }
+
+    @Override
+    public boolean writeQueueFull() {
+        return pending >= maxPending;
+    }
+
+    @Override
+    public CacheFillStream drainHandler(Handler<Void> handler) {
+        this.drainHandler = handler;
+        return this;
+    }
+
+    private void afterStore() {
+        if (ended != null && pending == 0) {
+            ended.tryComplete();
+        } else if (drainHandler != null && pending <= maxPending / 2) {
+            Handler<Void> handler = drainHandler;
+            drainHandler = null;
+            handler.handle(null);
+        }
+    }
+
+    /**
+     * Programs written to this stream so far.
+     */
+    public long written() {
+        return written;
+    }
+
+    /**
+     * Programs Redis has acknowledged.
+     */
+    public long stored() {
+        return stored;
+    }
+
+    /**
+     * Programs Redis failed to store.
+     */
+    public long failed() {
+        return failed;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.cache;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+import static com.amazon.util.Constants.*;
+
+/**
+ * Circuit breaker around the Redis lookups of the near cache, shared by all instances of the cache verticle
+ * within one Vert.x instance.
+ * <p>
+ * After {@code failureThreshold} lookups in a row failed or ran past their deadline the breaker opens, and
+ * lookups fail right away instead of waiting for Redis. Once the reset timeout has passed a single lookup
+ * is let through; if it succeeds the breaker closes again, otherwise it stays open for another timeout.
+ */
+public class CircuitBreaker implements Shareable {
+
+    private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+    private static final String LOCAL_MAP_NAME = "com.amazon.cache";
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_RESET_TIMEOUT_MS = 5000;
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long resetTimeoutNanos;
+
+    // Guarded by this
+    private State state = State.CLOSED;
+    private int failures;
+    private long openedAt;
+
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    private CircuitBreaker(JsonObject config) {
+        failureThreshold = Math.max(config.getInteger(CACHE_BREAKER_FAILURE_THRESHOLD, DEFAULT_FAILURE_THRESHOLD), 1);
+        resetTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(CACHE_BREAKER_RESET_TIMEOUT_MS, DEFAULT_RESET_TIMEOUT_MS));
+    }
+
+    /**
+     * Returns the breaker of the given Vert.x instance, creating it with the given configuration on first use.
+     */
+    public static CircuitBreaker get(Vertx vertx, JsonObject config) {
+        return vertx.sharedData().<String, CircuitBreaker>getLocalMap(LOCAL_MAP_NAME)
+                .computeIfAbsent(CircuitBreaker.class.getName(), key -> new CircuitBreaker(config));
+    }
+
+    /**
+     * Runs the call if the breaker lets it through, otherwise fails with {@link OpenException}.
+     */
+    public <T> Future<T> execute(Supplier<Future<T>> call) {
+        return execute(call, err -> true);
+    }
+
+    /**
+     * Runs the call if the breaker lets it through, otherwise fails with {@link OpenException}. Failures
+     * that {@code isFailure} rejects show that Redis answered, and count as successes.
+     */
+    public <T> Future<T> execute(Supplier<Future<T>> call, Predicate<Throwable> isFailure) {
+        if (!tryAcquire()) {
+            rejected.increment();
+            return Future.failedFuture(new OpenException());
+        }
+        return call.get().onComplete(ar -> {
+            if (ar.succeeded() || !isFailure.test(ar.cause())) {
+                onSuccess();
+            } else {
+                onFailure();
+            }
+        });
+    }
+
+    private synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - openedAt < resetTimeoutNanos) {
+                    return false;
+                }
+                // Trial lookup, all others keep failing fast until it completes
+                state = State.HALF_OPEN;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            LOGGER.info("Redis lookups succeed again, closing the circuit breaker");
+        }
+        state = State.CLOSED;
+        failures = 0;
+    }
+
+    private synchronized void onFailure() {
+        failures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+            if (state == State.CLOSED) {
+                LOGGER.warning(failures + " Redis lookups failed in a row, opening the circuit breaker");
+            }
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            opened.increment();
+        }
+    }
+
+    public synchronized JsonObject stats() {
+        return new JsonObject()
+                .put("state", state.name())
+                .put("consecutiveFailures", failures)
+                .put("opened", opened.sum())
+                .put("rejected", rejected.sum());
+    }
+
+    /**
+     * Registers the state of the breaker (0 closed, 1 open, 2 half-open) and its counters as meters.
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tracking.redis.breaker.state", this, breaker -> breaker.state().ordinal())
+                .register(registry);
+        FunctionCounter.builder("tracking.redis.breaker.opened", opened, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("tracking.redis.breaker.rejected", rejected, LongAdder::sum)
+                .register(registry);
+    }
+
+    private synchronized State state() {
+        return state;
+    }
+
+    /**
+     * A lookup was not sent to Redis because the breaker is open.
+     */
+    public static final class OpenException extends RuntimeException {
+        private OpenException() {
+            super("Circuit breaker for Redis lookups is open", null, false, false);
+        }
+    }
+}
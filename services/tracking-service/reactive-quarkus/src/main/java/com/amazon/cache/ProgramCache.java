@@ -0,0 +1,390 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.cache;
+
+import com.amazon.redis.InvalidationMode;
+import com.amazon.vo.Program;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.github.benmanes.caffeine.cache.stats.ConcurrentStatsCounter;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static com.amazon.util.Constants.*;
+
+/**
+ * Near cache for programs, shared by all instances of the cache verticle within one Vert.x instance.
+ * <p>
+ * Programs are kept in a size-bounded Caffeine cache, whose W-TinyLFU admission policy keeps the hot
+ * programs of a skewed workload. Statistics are recorded and reported by {@link #stats()}.
+ * <p>
+ * Entries older than the refresh threshold are still served, while a single background lookup
+ * replaces them. Hot programs are therefore refreshed before they expire and requests for them don't
+ * wait for Redis.
+ * <p>
+ * Besides the programs themselves it remembers programIds Redis did not know for a short time, and it
+ * can optionally keep a Bloom filter of all known programIds. The Bloom filter only learns programIds
+ * through {@code /cache/fill}, pub/sub updates and Redis lookups, so enable it only if every program
+ * reaches each node this way; otherwise valid programs are rejected as unknown. It is only consulted
+ * once a {@code /cache/fill} has completed on the node, and it is disabled with the {@code tracking}
+ * invalidation mode, which doesn't deliver programs added to Redis later.
+ * <p>
+ * Expired programs are kept for the stale TTL on top of their lifetime. They count as misses, but
+ * {@link #getStale(String)} still returns them while Redis can't be reached.
+ */
+public class ProgramCache implements Shareable {
+
+    private static final Logger LOGGER = Logger.getLogger(ProgramCache.class.getName());
+
+    private static final String LOCAL_MAP_NAME = "com.amazon.cache";
+
+    private static final long DEFAULT_MAX_ENTRIES = 100000;
+    private static final long DEFAULT_EXPIRE_AFTER_WRITE_MS = 600000;
+    private static final long DEFAULT_REFRESH_AFTER_WRITE_MS = 300000;
+    private static final long DEFAULT_STALE_TTL_MS = 3600000;
+    private static final long DEFAULT_NEGATIVE_TTL_MS = 5000;
+    private static final long DEFAULT_NEGATIVE_MAX_ENTRIES = 100000;
+    private static final long DEFAULT_BLOOM_EXPECTED_INSERTIONS = 1000000;
+    private static final double DEFAULT_BLOOM_FPP = 0.01;
+
+    private final ConcurrentStatsCounter statsCounter = new ConcurrentStatsCounter();
+    private final Cache<String, Entry> programs;
+    private final long expireAfterWriteNanos;
+    private final long refreshAfterWriteNanos;
+
+    private final Cache<String, Boolean> unknownPrograms;
+
+    private final boolean bloomEnabled;
+    private final long bloomExpectedInsertions;
+    private final double bloomFpp;
+    private volatile BloomFilter<String> knownPrograms;
+    // Set once /cache/fill has put every program into the Bloom filter, which is ignored until then
+    private volatile boolean bloomFilled;
+
+    // Outstanding lookups per programId, every further miss for the same key waits for these
+    private final Map<String, Future<Program>> inFlight = new ConcurrentHashMap<>();
+    // Outstanding lookups that may have read a value invalidated since, their result is not cached
+    private final Set<String> staleLoads = ConcurrentHashMap.newKeySet();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder coalescedLookups = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder bloomRejects = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+
+    private ProgramCache(JsonObject config) {
+        // Evictions are recorded by the cache, hits and misses by getIfPresent(), load times by load()
+        expireAfterWriteNanos = Duration.ofMillis(config.getLong(CACHE_EXPIRE_AFTER_WRITE_MS, DEFAULT_EXPIRE_AFTER_WRITE_MS)).toNanos();
+        programs = Caffeine.newBuilder()
+                .maximumSize(config.getLong(CACHE_MAX_ENTRIES, DEFAULT_MAX_ENTRIES))
+                .expireAfterWrite(Duration.ofNanos(expireAfterWriteNanos)
+                        .plusMillis(Math.max(config.getLong(CACHE_STALE_TTL_MS, DEFAULT_STALE_TTL_MS), 0)))
+                .recordStats(() -> statsCounter)
+                .build();
+        refreshAfterWriteNanos = Duration.ofMillis(config.getLong(CACHE_REFRESH_AFTER_WRITE_MS, DEFAULT_REFRESH_AFTER_WRITE_MS)).toNanos();
+
+        unknownPrograms = Caffeine.newBuilder()
+                .maximumSize(config.getLong(CACHE_NEGATIVE_MAX_ENTRIES, DEFAULT_NEGATIVE_MAX_ENTRIES))
+                .expireAfterWrite(Duration.ofMillis(config.getLong(CACHE_NEGATIVE_TTL_MS, DEFAULT_NEGATIVE_TTL_MS)))
+                .build();
+
+        boolean bloom = config.getBoolean(CACHE_BLOOM_ENABLED, false);
+        if (bloom && InvalidationMode.parse(config.getString(CACHE_INVALIDATION, InvalidationMode.PUBSUB.name())) == InvalidationMode.TRACKING) {
+            LOGGER.warning("Disabling the Bloom filter, with tracking invalidation it would never learn programs added to Redis later");
+            bloom = false;
+        }
+        bloomEnabled = bloom;
+        bloomExpectedInsertions = config.getLong(CACHE_BLOOM_EXPECTED_INSERTIONS, DEFAULT_BLOOM_EXPECTED_INSERTIONS);
+        bloomFpp = config.getDouble(CACHE_BLOOM_FPP, DEFAULT_BLOOM_FPP);
+        knownPrograms = bloomEnabled ? newBloomFilter() : null;
+    }
+
+    /**
+     * Returns the cache of the given Vert.x instance, creating it with the given configuration on first use.
+     */
+    public static ProgramCache get(Vertx vertx, JsonObject config) {
+        return vertx.sharedData().<String, ProgramCache>getLocalMap(LOCAL_MAP_NAME)
+                .computeIfAbsent(ProgramCache.class.getName(), key -> new ProgramCache(config));
+    }
+
+    /**
+     * Returns the cached program. If it is due for a refresh, the loader is started in the background
+     * and the current value is returned nevertheless.
+     */
+    public Program getIfPresent(String programId, Function<String, Future<Program>> loader) {
+        Entry entry = programs.policy().getIfPresentQuietly(programId);
+        if (entry == null || System.nanoTime() - entry.writtenAt > expireAfterWriteNanos) {
+            statsCounter.recordMisses(1);
+            return null;
+        }
+        statsCounter.recordHits(1);
+
+        if (refreshAfterWriteNanos > 0
+                && System.nanoTime() - entry.writtenAt > refreshAfterWriteNanos
+                && !inFlight.containsKey(programId)) {
+            refreshes.increment();
+            startLoad(programId, loader);
+        }
+        return entry.program;
+    }
+
+    /**
+     * Returns the cached program even if it has expired, as a fallback while Redis can't be reached.
+     */
+    public Program getStale(String programId) {
+        Entry entry = programs.policy().getIfPresentQuietly(programId);
+        if (entry == null) {
+            return null;
+        }
+        staleHits.increment();
+        return entry.program;
+    }
+
+    /**
+     * Whether the programId is known not to exist, either from a recent lookup or from the Bloom filter
+     * once it has been filled.
+     */
+    public boolean isUnknown(String programId) {
+        if (unknownPrograms.getIfPresent(programId) != null) {
+            negativeHits.increment();
+            return true;
+        }
+
+        BloomFilter<String> bloomFilter = knownPrograms;
+        if (bloomFilter != null && bloomFilled && !bloomFilter.mightContain(programId)) {
+            bloomRejects.increment();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Starts consulting the Bloom filter, after {@code /cache/fill} has stored every program on this node.
+     */
+    public void markFilled() {
+        if (bloomEnabled) {
+            bloomFilled = true;
+        }
+    }
+
+    public void put(Program program) {
+        programs.put(program.getProgramId(), new Entry(program, System.nanoTime()));
+        unknownPrograms.invalidate(program.getProgramId());
+
+        BloomFilter<String> bloomFilter = knownPrograms;
+        if (bloomFilter != null) {
+            bloomFilter.put(program.getProgramId());
+        }
+    }
+
+    /**
+     * Loads a program that is not cached. Concurrent loads for the same programId share one call of the
+     * loader; a program the loader doesn't find is remembered as unknown. The returned future completes
+     * on the context of the caller, also when it joins a load started by another cache verticle.
+     */
+    public Future<Program> load(String programId, Function<String, Future<Program>> loader) {
+        Future<Program> pending = inFlight.get(programId);
+        if (pending != null) {
+            coalescedLookups.increment();
+            return onCurrentContext(pending);
+        }
+        return startLoad(programId, loader);
+    }
+
+    private Future<Program> startLoad(String programId, Function<String, Future<Program>> loader) {
+        Promise<Program> promise = Promise.promise();
+        Future<Program> pending = inFlight.putIfAbsent(programId, promise.future());
+        if (pending != null) {
+            return onCurrentContext(pending);
+        }
+
+        lookups.increment();
+        long start = System.nanoTime();
+        loader.apply(programId).onComplete(ar -> {
+            boolean stale = staleLoads.remove(programId);
+            if (ar.succeeded()) {
+                statsCounter.recordLoadSuccess(System.nanoTime() - start);
+                if (stale) {
+                    programs.invalidate(programId);
+                } else if (ar.result() == null) {
+                    programs.invalidate(programId);
+                    unknownPrograms.put(programId, Boolean.TRUE);
+                } else {
+                    put(ar.result());
+                }
+            } else {
+                statsCounter.recordLoadFailure(System.nanoTime() - start);
+            }
+
+            // The cache is populated before the entry is removed, so requests arriving now hit the cache
+            inFlight.remove(programId);
+            promise.handle(ar);
+        });
+
+        return promise.future();
+    }
+
+    /**
+     * Hands the result of a load to the context of the caller, since the load may be completed on the event
+     * loop of the verticle instance that started it.
+     */
+    private static Future<Program> onCurrentContext(Future<Program> pending) {
+        Context context = Vertx.currentContext();
+        if (context == null) {
+            return pending;
+        }
+        Promise<Program> promise = Promise.promise();
+        pending.onComplete(ar -> {
+            if (Vertx.currentContext() == context) {
+                promise.handle(ar);
+            } else {
+                context.runOnContext(v -> promise.handle(ar));
+            }
+        });
+        return promise.future();
+    }
+
+    /**
+     * Drops a program that changed in Redis. A lookup of it that is outstanding may have read the old
+     * value, so its result is handed to the waiting requests but not cached.
+     */
+    public void invalidate(String programId) {
+        invalidations.increment();
+        programs.invalidate(programId);
+        unknownPrograms.invalidate(programId);
+        if (inFlight.containsKey(programId)) {
+            staleLoads.add(programId);
+        }
+    }
+
+    /**
+     * Drops all programs, but unlike {@link #invalidateAll()} keeps the Bloom filter of known programIds.
+     */
+    public void invalidatePrograms() {
+        invalidations.increment();
+        staleLoads.addAll(inFlight.keySet());
+        programs.invalidateAll();
+        unknownPrograms.invalidateAll();
+    }
+
+    /**
+     * Drops all programs and the Bloom filter, after Redis was purged. Lookups that are outstanding may
+     * have read a program before it was deleted, so their results aren't cached either.
+     */
+    public void invalidateAll() {
+        staleLoads.addAll(inFlight.keySet());
+        programs.invalidateAll();
+        unknownPrograms.invalidateAll();
+        if (bloomEnabled) {
+            bloomFilled = false;
+            knownPrograms = newBloomFilter();
+        }
+    }
+
+    public JsonObject stats() {
+        CacheStats stats = programs.stats();
+        return new JsonObject()
+                .put("size", programs.estimatedSize())
+                .put("hitCount", stats.hitCount())
+                .put("missCount", stats.missCount())
+                .put("hitRate", stats.hitRate())
+                .put("evictionCount", stats.evictionCount())
+                .put("loadSuccessCount", stats.loadSuccessCount())
+                .put("loadFailureCount", stats.loadFailureCount())
+                .put("averageLoadPenaltyMs", stats.averageLoadPenalty() / 1_000_000d)
+                .put("redisLookups", lookups.sum())
+                .put("coalescedLookups", coalescedLookups.sum())
+                .put("refreshes", refreshes.sum())
+                .put("inFlightLookups", inFlight.size())
+                .put("negativeSize", unknownPrograms.estimatedSize())
+                .put("negativeHits", negativeHits.sum())
+                .put("bloomEnabled", bloomEnabled)
+                .put("bloomFilled", bloomFilled)
+                .put("bloomRejects", bloomRejects.sum())
+                .put("invalidations", invalidations.sum())
+                .put("staleHits", staleHits.sum());
+    }
+
+    /**
+     * Registers the statistics of the cache as meters. Registering them again has no effect.
+     */
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tracking.cache.size", programs, Cache::estimatedSize)
+                .description("Programs in the near cache, including expired ones kept for stale reads")
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.requests", statsCounter, counter -> counter.snapshot().hitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.requests", statsCounter, counter -> counter.snapshot().missCount())
+                .tag("result", "miss")
+                .register(registry);
+        Gauge.builder("tracking.cache.hit.ratio", statsCounter, counter -> counter.snapshot().hitRate())
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.evictions", statsCounter, counter -> counter.snapshot().evictionCount())
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.redis.lookups", lookups, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.coalesced.lookups", coalescedLookups, LongAdder::sum)
+                .register(registry);
+        Gauge.builder("tracking.cache.inflight.lookups", inFlight, Map::size)
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.negative.hits", negativeHits, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.bloom.rejects", bloomRejects, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.stale.hits", staleHits, LongAdder::sum)
+                .register(registry);
+        FunctionCounter.builder("tracking.cache.invalidations", invalidations, LongAdder::sum)
+                .register(registry);
+    }
+
+    private BloomFilter<String> newBloomFilter() {
+        return BloomFilter.create(Funnels.stringFunnel(StandardCharsets.UTF_8), bloomExpectedInsertions, bloomFpp);
+    }
+
+    private static final class Entry {
+        private final Program program;
+        private final long writtenAt;
+
+        private Entry(Program program, long writtenAt) {
+            this.program = program;
+            this.writtenAt = writtenAt;
+        }
+    }
+}
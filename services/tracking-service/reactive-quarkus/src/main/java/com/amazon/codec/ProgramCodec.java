@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.codec;
+
+import com.amazon.vo.Program;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import static com.amazon.codec.WireFormat.*;
+
+/**
+ * Event-bus codec for {@link Program}.
+ * <p>
+ * Programs are immutable, so local delivery hands the very same instance to the receiver; this is
+ * what lets the near cache answer hits without copying.
+ */
+public class ProgramCodec implements MessageCodec<Program, Program> {
+
+    public static final String NAME = "program";
+
+    @Override
+    public void encodeToWire(Buffer buffer, Program program) {
+        write(buffer, program);
+    }
+
+    @Override
+    public Program decodeFromWire(int pos, Buffer buffer) {
+        return read(buffer, new int[]{pos});
+    }
+
+    @Override
+    public Program transform(Program program) {
+        return program;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+
+    static void write(Buffer buffer, Program program) {
+        appendString(buffer, program.getProgramId());
+        appendString(buffer, program.getProgramName());
+        appendString(buffer, program.getChecksum());
+        appendInteger(buffer, program.getCustomerId());
+        appendString(buffer, program.getCustomerName());
+        appendBoolean(buffer, program.isValid());
+    }
+
+    static Program read(Buffer buffer, int[] cursor) {
+        String programId = readString(buffer, cursor);
+        String programName = readString(buffer, cursor);
+        String checksum = readString(buffer, cursor);
+        Integer customerId = readInteger(buffer, cursor);
+        String customerName = readString(buffer, cursor);
+        boolean valid = readBoolean(buffer, cursor);
+
+        return new Program(programId, programName, checksum, customerId, customerName, valid);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.codec;
+
+import com.amazon.vo.Program;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Reads and writes programs as {@code ProgramRecord} protobuf messages, the binary form programs are
+ * stored in Redis with. Like {@link TrackingEventEncoder} it works on the wire format directly instead
+ * of going through generated classes. Unknown fields are skipped, so fields can be added to
+ * program.proto without breaking readers of older versions, and so are fields whose wire type doesn't
+ * match program.proto.
+ */
+public final class ProgramRecordCodec {
+
+    // Field numbers from program.proto
+    private static final int PROGRAM_ID = 1;
+    private static final int PROGRAM_NAME = 2;
+    private static final int CHECKSUM = 3;
+    private static final int CUSTOMER_ID = 4;
+    private static final int CUSTOMER_NAME = 5;
+    private static final int VALID = 6;
+
+    private ProgramRecordCodec() {
+    }
+
+    public static byte[] encode(Program program) {
+        int size = stringSize(PROGRAM_ID, program.getProgramId())
+                + stringSize(PROGRAM_NAME, program.getProgramName())
+                + stringSize(CHECKSUM, program.getChecksum())
+                + (program.getCustomerId() == null ? 0 : CodedOutputStream.computeInt32Size(CUSTOMER_ID, program.getCustomerId()))
+                + stringSize(CUSTOMER_NAME, program.getCustomerName())
+                + (program.isValid() ? CodedOutputStream.computeBoolSize(VALID, true) : 0);
+
+        byte[] encoded = new byte[size];
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+            writeString(output, PROGRAM_ID, program.getProgramId());
+            writeString(output, PROGRAM_NAME, program.getProgramName());
+            writeString(output, CHECKSUM, program.getChecksum());
+            // customer_id is optional, so a present 0 is written as well
+            if (program.getCustomerId() != null) {
+                output.writeInt32(CUSTOMER_ID, program.getCustomerId());
+            }
+            writeString(output, CUSTOMER_NAME, program.getCustomerName());
+            if (program.isValid()) {
+                output.writeBool(VALID, true);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        return encoded;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes are not a {@code ProgramRecord} message
+     */
+    public static Program decode(byte[] encoded) {
+        String programId = null;
+        String programName = null;
+        String checksum = null;
+        Integer customerId = null;
+        String customerName = null;
+        boolean valid = false;
+
+        try {
+            CodedInputStream input = CodedInputStream.newInstance(encoded);
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                int field = com.google.protobuf.WireFormat.getTagFieldNumber(tag);
+                if (com.google.protobuf.WireFormat.getTagWireType(tag) != wireType(field)) {
+                    input.skipField(tag);
+                    continue;
+                }
+                switch (field) {
+                    case PROGRAM_ID:
+                        programId = input.readStringRequireUtf8();
+                        break;
+                    case PROGRAM_NAME:
+                        programName = input.readStringRequireUtf8();
+                        break;
+                    case CHECKSUM:
+                        checksum = input.readStringRequireUtf8();
+                        break;
+                    case CUSTOMER_ID:
+                        customerId = input.readInt32();
+                        break;
+                    case CUSTOMER_NAME:
+                        customerName = input.readStringRequireUtf8();
+                        break;
+                    case VALID:
+                        valid = input.readBool();
+                        break;
+                }
+            }
+        } catch (IOException exc) {
+            throw new IllegalArgumentException("Not a ProgramRecord: " + exc.getMessage(), exc);
+        }
+
+        return new Program(programId, programName, checksum, customerId, customerName, valid);
+    }
+
+    /**
+     * The wire type program.proto declares for the field, {@code -1} for unknown fields.
+     */
+    private static int wireType(int field) {
+        switch (field) {
+            case PROGRAM_ID:
+            case PROGRAM_NAME:
+            case CHECKSUM:
+            case CUSTOMER_NAME:
+                return com.google.protobuf.WireFormat.WIRETYPE_LENGTH_DELIMITED;
+            case CUSTOMER_ID:
+            case VALID:
+                return com.google.protobuf.WireFormat.WIRETYPE_VARINT;
+            default:
+                return -1;
+        }
+    }
+
+    private static int stringSize(int field, String value) {
+        return value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    private static void writeString(CodedOutputStream output, int field, String value) throws IOException {
+        if (!value.isEmpty()) {
+            output.writeString(field, value);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.codec;
+
+import com.amazon.vo.Program;
+import com.amazon.vo.TrackingMessage;
+import com.google.protobuf.CodedOutputStream;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Writes {@code TrackingEvent} protobuf messages without going through the generated builder.
+ * <p>
+ * The program fields are encoded once per {@link Program} and cached there, so encoding a tracking
+ * event only writes the user agent and the message id behind a copy of them. The result is a single
+ * array of exactly the encoded size, which can be handed to the SDK without copying. Fields are not
+ * written in field number order, which protobuf parsers accept; like the generated code, fields with
+ * default values are left out.
+ */
+public final class TrackingEventEncoder {
+
+    // Field numbers from tracking.proto
+    private static final int PROGRAMID = 1;
+    private static final int CHECKSUM = 2;
+    private static final int CUSTOMER_ID = 3;
+    private static final int USER_AGENT = 4;
+    private static final int PROGRAM_NAME = 5;
+    private static final int CUSTOMER_NAME = 6;
+    private static final int IS_VALID = 7;
+    private static final int MESSAGE_ID = 8;
+
+    private TrackingEventEncoder() {
+    }
+
+    public static byte[] encode(TrackingMessage trackingMessage) {
+        byte[] programFields = trackingMessage.getProgram().getTrackingEventFields();
+        int size = programFields.length
+                + stringSize(USER_AGENT, trackingMessage.getUserAgent())
+                + stringSize(MESSAGE_ID, trackingMessage.getMessageId());
+
+        byte[] encoded = new byte[size];
+        System.arraycopy(programFields, 0, encoded, 0, programFields.length);
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(encoded, programFields.length, size - programFields.length);
+            writeString(output, USER_AGENT, trackingMessage.getUserAgent());
+            writeString(output, MESSAGE_ID, trackingMessage.getMessageId());
+            output.checkNoSpaceLeft();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        return encoded;
+    }
+
+    /**
+     * Encodes the fields of a {@code TrackingEvent} that come from the program.
+     */
+    public static byte[] encodeProgramFields(Program program) {
+        int customerId = program.getCustomerId() == null ? 0 : program.getCustomerId();
+        int size = stringSize(PROGRAMID, program.getProgramId())
+                + stringSize(CHECKSUM, program.getChecksum())
+                + (customerId == 0 ? 0 : CodedOutputStream.computeInt32Size(CUSTOMER_ID, customerId))
+                + stringSize(PROGRAM_NAME, program.getProgramName())
+                + stringSize(CUSTOMER_NAME, program.getCustomerName())
+                + (program.isValid() ? CodedOutputStream.computeBoolSize(IS_VALID, true) : 0);
+
+        byte[] encoded = new byte[size];
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(encoded);
+            writeString(output, PROGRAMID, program.getProgramId());
+            writeString(output, CHECKSUM, program.getChecksum());
+            if (customerId != 0) {
+                output.writeInt32(CUSTOMER_ID, customerId);
+            }
+            writeString(output, PROGRAM_NAME, program.getProgramName());
+            writeString(output, CUSTOMER_NAME, program.getCustomerName());
+            if (program.isValid()) {
+                output.writeBool(IS_VALID, true);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        return encoded;
+    }
+
+    private static int stringSize(int field, String value) {
+        return value.isEmpty() ? 0 : CodedOutputStream.computeStringSize(field, value);
+    }
+
+    private static void writeString(CodedOutputStream output, int field, String value) throws IOException {
+        if (!value.isEmpty()) {
+            output.writeString(field, value);
+        }
+    }
+}
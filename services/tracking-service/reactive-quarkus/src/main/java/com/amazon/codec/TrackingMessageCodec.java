@@ -0,0 +1,67 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.codec;
+
+import com.amazon.vo.TrackingMessage;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageCodec;
+
+import static com.amazon.codec.WireFormat.appendString;
+import static com.amazon.codec.WireFormat.readString;
+
+/**
+ * Event-bus codec for {@link TrackingMessage}.
+ * <p>
+ * Local delivery hands the instance over as-is. The wire form used in clustered mode is a compact
+ * length-prefixed layout instead of JSON.
+ */
+public class TrackingMessageCodec implements MessageCodec<TrackingMessage, TrackingMessage> {
+
+    public static final String NAME = "trackingmessage";
+
+    @Override
+    public void encodeToWire(Buffer buffer, TrackingMessage trackingMessage) {
+        appendString(buffer, trackingMessage.getMessageId());
+        appendString(buffer, trackingMessage.getUserAgent());
+        ProgramCodec.write(buffer, trackingMessage.getProgram());
+    }
+
+    @Override
+    public TrackingMessage decodeFromWire(int pos, Buffer buffer) {
+        int[] cursor = {pos};
+
+        String messageId = readString(buffer, cursor);
+        String userAgent = readString(buffer, cursor);
+
+        return new TrackingMessage(messageId, userAgent, ProgramCodec.read(buffer, cursor));
+    }
+
+    @Override
+    public TrackingMessage transform(TrackingMessage trackingMessage) {
+        return trackingMessage;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.codec;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Helpers for the length-prefixed wire form shared by the codecs in this package.
+ */
+final class WireFormat {
+
+    private WireFormat() {
+    }
+
+    static void appendString(Buffer buffer, String value) {
+        if (value == null) {
+            buffer.appendInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.appendInt(bytes.length);
+        buffer.appendBytes(bytes);
+    }
+
+    static String readString(Buffer buffer, int[] cursor) {
+        int length = buffer.getInt(cursor[0]);
+        cursor[0] += 4;
+        if (length < 0) {
+            return null;
+        }
+        String value = buffer.getString(cursor[0], cursor[0] + length, StandardCharsets.UTF_8.name());
+        cursor[0] += length;
+        return value;
+    }
+
+    static void appendInteger(Buffer buffer, Integer value) {
+        buffer.appendByte(value == null ? (byte) 0 : (byte) 1);
+        if (value != null) {
+            buffer.appendInt(value);
+        }
+    }
+
+    static Integer readInteger(Buffer buffer, int[] cursor) {
+        if (buffer.getByte(cursor[0]++) == 0) {
+            return null;
+        }
+        int value = buffer.getInt(cursor[0]);
+        cursor[0] += 4;
+        return value;
+    }
+
+    static void appendBoolean(Buffer buffer, boolean value) {
+        buffer.appendByte(value ? (byte) 1 : (byte) 0);
+    }
+
+    static boolean readBoolean(Buffer buffer, int[] cursor) {
+        return buffer.getByte(cursor[0]++) == 1;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.kinesis;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.SdkMetric;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usage of the connection pool of the Netty client behind the Kinesis client, as gauges.
+ * <p>
+ * The SDK reports the state of the pool with the metrics of every call it makes, so the gauges show the
+ * state as of the latest PutRecords call.
+ */
+public class HttpClientMetrics implements MetricPublisher {
+
+    private final AtomicInteger maxConcurrency = new AtomicInteger();
+    private final AtomicInteger leasedConcurrency = new AtomicInteger();
+    private final AtomicInteger availableConcurrency = new AtomicInteger();
+    private final AtomicInteger pendingAcquires = new AtomicInteger();
+
+    public HttpClientMetrics(MeterRegistry registry) {
+        gauge(registry, "max", maxConcurrency);
+        gauge(registry, "leased", leasedConcurrency);
+        gauge(registry, "available", availableConcurrency);
+        gauge(registry, "pending", pendingAcquires);
+    }
+
+    private static void gauge(MeterRegistry registry, String state, AtomicInteger value) {
+        Gauge.builder("tracking.kinesis.http.pool", value, AtomicInteger::get)
+                .description("Connections of the Kinesis HTTP client: the maximum, leased and available ones, and acquires waiting for one")
+                .tag("state", state)
+                .register(registry);
+    }
+
+    @Override
+    public void publish(MetricCollection metrics) {
+        update(metrics, HttpMetric.MAX_CONCURRENCY, maxConcurrency);
+        update(metrics, HttpMetric.LEASED_CONCURRENCY, leasedConcurrency);
+        update(metrics, HttpMetric.AVAILABLE_CONCURRENCY, availableConcurrency);
+        update(metrics, HttpMetric.PENDING_CONCURRENCY_ACQUIRES, pendingAcquires);
+        // The pool metrics are reported with the attempts of a call
+        metrics.children().forEach(this::publish);
+    }
+
+    private static void update(MetricCollection metrics, SdkMetric<Integer> metric, AtomicInteger gauge) {
+        List<Integer> values = metrics.metricValues(metric);
+        if (!values.isEmpty()) {
+            gauge.set(values.get(values.size() - 1));
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
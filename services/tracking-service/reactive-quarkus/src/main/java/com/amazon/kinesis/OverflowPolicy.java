@@ -0,0 +1,44 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.kinesis;
+
+/**
+ * What the Kinesis verticle does with a tracking event while its in-flight window is full.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Hold the event, and the HTTP response waiting for it, until the window has room again or the
+     * block timeout has passed.
+     */
+    BLOCK,
+
+    /**
+     * Reject the event right away.
+     */
+    SHED,
+
+    /**
+     * Append the event to the spill log, it is written to Kinesis once the stream has caught up. The event
+     * is rejected if the spill log is full.
+     */
+    SPILL;
+
+    public static OverflowPolicy parse(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.kinesis;
+
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs user records into Kinesis records in the aggregation format of the Kinesis Producer Library,
+ * so that many small records take a single slot of the per-shard record limit.
+ * <p>
+ * An aggregated record is the magic number {@code F3 89 9A C2}, an {@code AggregatedRecord} protobuf
+ * message and the MD5 digest of that message:
+ * <pre>
+ * message AggregatedRecord {
+ *     repeated string partition_key_table     = 1;
+ *     repeated string explicit_hash_key_table = 2;
+ *     repeated Record records                 = 3;
+ * }
+ * message Record {
+ *     required uint64 partition_key_index     = 1;
+ *     optional uint64 explicit_hash_key_index = 2;
+ *     required bytes  data                    = 3;
+ * }
+ * </pre>
+ * The KCL and the {@code kinesis-consumer} Lambda unpack it transparently.
+ * <p>
+ * User records are assigned to one of {@code hashRanges} equal slices of the hash key space by the MD5
+ * of their partition key, the same hash Kinesis uses, and each slice is aggregated separately. With more
+ * than one slice the aggregated record is sent with the middle of its slice as explicit hash key, so it
+ * lands on the shard its user records would have been written to, as long as the shards split the hash
+ * key space evenly. With a single slice it is sent with the partition key of its first user record.
+ * <p>
+ * Instances are not thread-safe.
+ */
+public class RecordAggregator {
+
+    private static final byte[] MAGIC = {(byte) 0xF3, (byte) 0x89, (byte) 0x9A, (byte) 0xC2};
+    private static final int DIGEST_LENGTH = 16;
+
+    private static final int PARTITION_KEY_TABLE_FIELD = 1;
+    private static final int RECORDS_FIELD = 3;
+    private static final int PARTITION_KEY_INDEX_FIELD = 1;
+    private static final int DATA_FIELD = 3;
+
+    private final Bucket[] buckets;
+    private final int maxBytes;
+    private final MessageDigest md5;
+    private int bufferedRecords;
+
+    /**
+     * @param hashRanges number of slices of the hash key space that are aggregated separately
+     * @param maxBytes   size an aggregated record may grow to, including magic number and digest
+     */
+    public RecordAggregator(int hashRanges, int maxBytes) {
+        if (hashRanges < 1) {
+            throw new IllegalArgumentException("hashRanges must be positive: " + hashRanges);
+        }
+
+        this.buckets = new Bucket[hashRanges];
+        BigInteger rangeSize = BigInteger.ONE.shiftLeft(128).divide(BigInteger.valueOf(hashRanges));
+        for (int i = 0; i < hashRanges; i++) {
+            String explicitHashKey = hashRanges == 1
+                    ? null
+                    : rangeSize.multiply(BigInteger.valueOf(i)).add(rangeSize.shiftRight(1)).toString();
+            buckets[i] = new Bucket(explicitHashKey);
+        }
+
+        this.maxBytes = maxBytes;
+        this.md5 = newMd5();
+    }
+
+    /**
+     * Adds a user record. If it doesn't fit into the aggregated record of its hash range, that record is
+     * completed and returned, and the user record starts a new one.
+     *
+     * @return the completed aggregated record, or {@code null}
+     */
+    public AggregatedRecord add(String partitionKey, byte[] data) {
+        Bucket bucket = buckets[bucketOf(partitionKey)];
+
+        AggregatedRecord completed = null;
+        int addedBytes = addedBytes(bucket.size(), partitionKey, data);
+        if (bucket.size() > 0 && MAGIC.length + bucket.messageSize + addedBytes + DIGEST_LENGTH > maxBytes) {
+            completed = complete(bucket);
+            addedBytes = addedBytes(0, partitionKey, data);
+        }
+
+        bucket.add(partitionKey, data, addedBytes);
+        bufferedRecords++;
+        return completed;
+    }
+
+    public boolean isEmpty() {
+        return bufferedRecords == 0;
+    }
+
+    /**
+     * Completes the aggregated records of all hash ranges.
+     */
+    public List<AggregatedRecord> drain() {
+        List<AggregatedRecord> records = new ArrayList<>();
+        for (Bucket bucket : buckets) {
+            if (bucket.size() > 0) {
+                records.add(complete(bucket));
+            }
+        }
+        return records;
+    }
+
+    private int bucketOf(String partitionKey) {
+        if (buckets.length == 1) {
+            return 0;
+        }
+        BigInteger hashKey = new BigInteger(1, md5.digest(partitionKey.getBytes(StandardCharsets.UTF_8)));
+        return hashKey.multiply(BigInteger.valueOf(buckets.length)).shiftRight(128).intValue();
+    }
+
+    // Growth of the AggregatedRecord message by one partition key table entry and one record
+    private static int addedBytes(int index, String partitionKey, byte[] data) {
+        int recordSize = recordSize(index, data);
+        return CodedOutputStream.computeStringSize(PARTITION_KEY_TABLE_FIELD, partitionKey)
+                + CodedOutputStream.computeTagSize(RECORDS_FIELD)
+                + CodedOutputStream.computeUInt32SizeNoTag(recordSize)
+                + recordSize;
+    }
+
+    private static int recordSize(int index, byte[] data) {
+        return CodedOutputStream.computeUInt64Size(PARTITION_KEY_INDEX_FIELD, index)
+                + CodedOutputStream.computeByteArraySize(DATA_FIELD, data);
+    }
+
+    private AggregatedRecord complete(Bucket bucket) {
+        byte[] aggregated = new byte[MAGIC.length + bucket.messageSize + DIGEST_LENGTH];
+        System.arraycopy(MAGIC, 0, aggregated, 0, MAGIC.length);
+
+        try {
+            CodedOutputStream output = CodedOutputStream.newInstance(aggregated, MAGIC.length, bucket.messageSize);
+            for (String partitionKey : bucket.partitionKeys) {
+                output.writeString(PARTITION_KEY_TABLE_FIELD, partitionKey);
+            }
+            for (int i = 0; i < bucket.data.size(); i++) {
+                byte[] data = bucket.data.get(i);
+                output.writeTag(RECORDS_FIELD, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                output.writeUInt32NoTag(recordSize(i, data));
+                output.writeUInt64(PARTITION_KEY_INDEX_FIELD, i);
+                output.writeByteArray(DATA_FIELD, data);
+            }
+            output.checkNoSpaceLeft();
+
+            md5.update(aggregated, MAGIC.length, bucket.messageSize);
+            md5.digest(aggregated, MAGIC.length + bucket.messageSize, DIGEST_LENGTH);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        } catch (DigestException exc) {
+            throw new IllegalStateException(exc);
+        }
+
+        String partitionKey = bucket.partitionKeys.get(0);
+        int userRecords = bucket.size();
+        bufferedRecords -= userRecords;
+        bucket.clear();
+
+        return new AggregatedRecord(partitionKey, bucket.explicitHashKey, aggregated, userRecords);
+    }
+
+    private static MessageDigest newMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    private static final class Bucket {
+        private final String explicitHashKey;
+        private final List<String> partitionKeys = new ArrayList<>();
+        private final List<byte[]> data = new ArrayList<>();
+        // Size of the AggregatedRecord message, without magic number and digest
+        private int messageSize;
+
+        private Bucket(String explicitHashKey) {
+            this.explicitHashKey = explicitHashKey;
+        }
+
+        private int size() {
+            return data.size();
+        }
+
+        private void add(String partitionKey, byte[] record, int addedBytes) {
+            partitionKeys.add(partitionKey);
+            data.add(record);
+            messageSize += addedBytes;
+        }
+
+        private void clear() {
+            partitionKeys.clear();
+            data.clear();
+            messageSize = 0;
+        }
+    }
+
+    /**
+     * A completed aggregated record, ready to be sent to Kinesis.
+     */
+    public static final class AggregatedRecord {
+        private final String partitionKey;
+        private final String explicitHashKey;
+        private final byte[] data;
+        private final int userRecords;
+
+        private AggregatedRecord(String partitionKey, String explicitHashKey, byte[] data, int userRecords) {
+            this.partitionKey = partitionKey;
+            this.explicitHashKey = explicitHashKey;
+            this.data = data;
+            this.userRecords = userRecords;
+        }
+
+        public String getPartitionKey() {
+            return partitionKey;
+        }
+
+        /**
+         * The explicit hash key to send the record with, {@code null} to route it by its partition key.
+         */
+        public String getExplicitHashKey() {
+            return explicitHashKey;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getUserRecords() {
+            return userRecords;
+        }
+    }
+}
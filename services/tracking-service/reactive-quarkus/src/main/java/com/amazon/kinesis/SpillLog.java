@@ -0,0 +1,368 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.kinesis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of Kinesis records that could not be written, kept on disk instead of on the heap
+ * until they can be replayed.
+ * <p>
+ * The log is a directory of fixed-size segment files that are memory-mapped, so appending a record is a
+ * copy into the page cache. Records survive a crash of the process; whether they survive a crash of the
+ * host depends on the OS having flushed them. Each record is stored as
+ * <pre>
+ * int    length of the body, negated once the record has been replayed, 0 after the last record
+ * int    CRC32 of the body
+ * body:  short length and UTF-8 bytes of the partition key,
+ *        short length and UTF-8 bytes of the explicit hash key (0 for none),
+ *        data
+ * </pre>
+ * Replayed records are marked in place, and a segment is deleted as soon as it no longer holds records
+ * waiting for replay. When the log is opened again, records after the first torn one of a segment are
+ * ignored.
+ * <p>
+ * Instances are not thread-safe, and a directory must only be used by one instance at a time.
+ */
+public class SpillLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(SpillLog.class.getName());
+
+    private static final String SUFFIX = ".spill";
+    private static final int HEADER_BYTES = 8;
+    private static final byte[] NO_HASH_KEY = new byte[0];
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxSegments;
+
+    // Oldest first, records are appended to the last one
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId;
+    private long pendingRecords;
+    private boolean closed;
+
+    private SpillLog(Path directory, int segmentBytes, long maxBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = Math.max(maxBytes / segmentBytes, 1);
+    }
+
+    /**
+     * Opens the log in the given directory, picking up the records a previous instance didn't replay.
+     *
+     * @param segmentBytes size of a segment file, and with it the largest record the log can hold
+     * @param maxBytes     disk space the segments may take up
+     */
+    public static SpillLog open(Path directory, int segmentBytes, long maxBytes) throws IOException {
+        Files.createDirectories(directory);
+        SpillLog spillLog = new SpillLog(directory, segmentBytes, maxBytes);
+        spillLog.recover();
+        return spillLog;
+    }
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing
+                    .filter(file -> file.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            long id = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            Segment segment = Segment.map(id, file, (int) Files.size(file));
+            segment.scan();
+            if (segment.pendingRecords == 0) {
+                Files.delete(file);
+                continue;
+            }
+
+            // Records are only appended to segments of this instance
+            segment.sealed = true;
+            segments.addLast(segment);
+            pendingRecords += segment.pendingRecords;
+        }
+
+        if (pendingRecords > 0) {
+            LOGGER.info("Recovered " + pendingRecords + " records in " + segments.size() + " segments from " + directory);
+        }
+    }
+
+    /**
+     * Appends a record.
+     *
+     * @return false if the log is full or closed, or the record is larger than a segment
+     */
+    public boolean append(String partitionKey, String explicitHashKey, byte[] data) throws IOException {
+        if (closed) {
+            return false;
+        }
+
+        byte[] partitionKeyBytes = partitionKey.getBytes(StandardCharsets.UTF_8);
+        byte[] explicitHashKeyBytes = explicitHashKey == null ? NO_HASH_KEY : explicitHashKey.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 2 + partitionKeyBytes.length + 2 + explicitHashKeyBytes.length + data.length;
+        if (HEADER_BYTES + bodyLength > segmentBytes) {
+            return false;
+        }
+
+        Segment segment = segments.peekLast();
+        if (segment == null || segment.sealed || segment.remaining() < HEADER_BYTES + bodyLength) {
+            if (segments.size() >= maxSegments) {
+                return false;
+            }
+            if (segment != null) {
+                segment.sealed = true;
+            }
+            segment = Segment.map(nextSegmentId, directory.resolve(String.format("%020d%s", nextSegmentId, SUFFIX)), segmentBytes);
+            nextSegmentId++;
+            segments.addLast(segment);
+        }
+
+        segment.append(partitionKeyBytes, explicitHashKeyBytes, data, bodyLength);
+        pendingRecords++;
+        return true;
+    }
+
+    /**
+     * Returns the oldest records waiting for replay, without removing them from the log.
+     */
+    public List<Entry> peek(int maxRecords, long maxBytes) {
+        List<Entry> entries = new ArrayList<>(Math.min(maxRecords, 512));
+        long bytes = 0;
+        for (Segment segment : segments) {
+            int position = segment.readPosition;
+            while (position < segment.writePosition && entries.size() < maxRecords) {
+                int length = segment.buffer.getInt(position);
+                if (length > 0) {
+                    if (!entries.isEmpty() && bytes + length > maxBytes) {
+                        return entries;
+                    }
+                    entries.add(segment.read(position, length));
+                    bytes += length;
+                }
+                position += HEADER_BYTES + Math.abs(length);
+            }
+            if (entries.size() >= maxRecords) {
+                break;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes replayed records from the log.
+     */
+    public void commit(List<Entry> entries) throws IOException {
+        for (Entry entry : entries) {
+            if (entry.segment.markReplayed(entry.position)) {
+                pendingRecords--;
+            }
+        }
+
+        Iterator<Segment> iterator = segments.iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            segment.skipReplayed();
+            if (segment.sealed && segment.pendingRecords == 0) {
+                iterator.remove();
+                Files.deleteIfExists(segment.file);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    public long pendingRecords() {
+        return pendingRecords;
+    }
+
+    public int segments() {
+        return segments.size();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+
+    /**
+     * A record read from the log.
+     */
+    public static final class Entry {
+        private final Segment segment;
+        private final int position;
+        private final String partitionKey;
+        private final String explicitHashKey;
+        private final byte[] data;
+
+        private Entry(Segment segment, int position, String partitionKey, String explicitHashKey, byte[] data) {
+            this.segment = segment;
+            this.position = position;
+            this.partitionKey = partitionKey;
+            this.explicitHashKey = explicitHashKey;
+            this.data = data;
+        }
+
+        public String getPartitionKey() {
+            return partitionKey;
+        }
+
+        /**
+         * The explicit hash key the record was sent with, {@code null} if it was routed by its partition key.
+         */
+        public String getExplicitHashKey() {
+            return explicitHashKey;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+    }
+
+    private static final class Segment {
+        private final Path file;
+        private final MappedByteBuffer buffer;
+        // Everything before readPosition has been replayed, nothing has been written after writePosition
+        private int readPosition;
+        private int writePosition;
+        private long pendingRecords;
+        private boolean sealed;
+
+        private Segment(Path file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        private static Segment map(long id, Path file, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // The mapping stays valid after the channel is closed
+                return new Segment(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        private int remaining() {
+            return buffer.capacity() - writePosition;
+        }
+
+        private void append(byte[] partitionKey, byte[] explicitHashKey, byte[] data, int bodyLength) {
+            int position = writePosition + HEADER_BYTES;
+            buffer.putShort(position, (short) partitionKey.length);
+            buffer.put(position + 2, partitionKey);
+            position += 2 + partitionKey.length;
+            buffer.putShort(position, (short) explicitHashKey.length);
+            buffer.put(position + 2, explicitHashKey);
+            position += 2 + explicitHashKey.length;
+            buffer.put(position, data);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.slice(writePosition + HEADER_BYTES, bodyLength));
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            // The length goes last, a record without it is treated as the end of the segment
+            buffer.putInt(writePosition, bodyLength);
+
+            writePosition += HEADER_BYTES + bodyLength;
+            pendingRecords++;
+        }
+
+        private Entry read(int position, int bodyLength) {
+            int offset = position + HEADER_BYTES;
+            String partitionKey = readString(offset);
+            offset += 2 + buffer.getShort(offset);
+            String explicitHashKey = buffer.getShort(offset) == 0 ? null : readString(offset);
+            offset += 2 + buffer.getShort(offset);
+
+            byte[] data = new byte[position + HEADER_BYTES + bodyLength - offset];
+            buffer.get(offset, data);
+            return new Entry(this, position, partitionKey, explicitHashKey, data);
+        }
+
+        private String readString(int offset) {
+            byte[] bytes = new byte[buffer.getShort(offset)];
+            buffer.get(offset + 2, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private boolean markReplayed(int position) {
+            int length = buffer.getInt(position);
+            if (length <= 0) {
+                return false;
+            }
+            buffer.putInt(position, -length);
+            pendingRecords--;
+            return true;
+        }
+
+        private void skipReplayed() {
+            while (readPosition < writePosition && buffer.getInt(readPosition) < 0) {
+                readPosition += HEADER_BYTES - buffer.getInt(readPosition);
+            }
+        }
+
+        /**
+         * Finds the records of a segment written by an earlier instance.
+         */
+        private void scan() {
+            int position = 0;
+            int firstPending = -1;
+            while (position + HEADER_BYTES <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length == 0 || length == Integer.MIN_VALUE || Math.abs(length) > buffer.capacity() - position - HEADER_BYTES) {
+                    break;
+                }
+                if (length > 0) {
+                    CRC32 crc = new CRC32();
+                    crc.update(buffer.slice(position + HEADER_BYTES, length));
+                    if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                        break;
+                    }
+                    pendingRecords++;
+                    firstPending = firstPending < 0 ? position : firstPending;
+                }
+                position += HEADER_BYTES + Math.abs(length);
+            }
+            writePosition = position;
+            readPosition = firstPending < 0 ? position : firstPending;
+        }
+    }
+}
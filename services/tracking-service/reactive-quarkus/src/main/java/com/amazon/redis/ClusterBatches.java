@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.redis;
+
+import io.vertx.core.Future;
+import io.vertx.redis.client.RedisConnection;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sends batches of single-key commands to a Redis Cluster.
+ * <p>
+ * The cluster client rejects a batch whose keys fall into different hash slots, since its commands could
+ * live on different nodes. The commands are therefore grouped by hash slot and every group is sent as a
+ * batch of its own; the cluster connection routes each group to the node of its slot, and the groups are
+ * written without waiting for each other, so they are still pipelined per node.
+ */
+public final class ClusterBatches {
+
+    public static final int SLOTS = 16384;
+
+    private static final int[] CRC16_TABLE = new int[256];
+
+    static {
+        // CRC16-CCITT (XMODEM) as used by Redis Cluster, polynomial 0x1021
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+            }
+            CRC16_TABLE[i] = crc & 0xFFFF;
+        }
+    }
+
+    private ClusterBatches() {
+    }
+
+    /**
+     * The hash slot of a key. If the key contains a non-empty hash tag, {@code {...}}, only the tag is hashed.
+     */
+    public static int slot(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        int end = bytes.length;
+
+        int open = indexOf(bytes, (byte) '{', 0);
+        if (open >= 0) {
+            int close = indexOf(bytes, (byte) '}', open + 1);
+            if (close > open + 1) {
+                start = open + 1;
+                end = close;
+            }
+        }
+
+        int crc = 0;
+        for (int i = start; i < end; i++) {
+            crc = ((crc << 8) ^ CRC16_TABLE[((crc >>> 8) ^ bytes[i]) & 0xFF]) & 0xFFFF;
+        }
+        return crc & (SLOTS - 1);
+    }
+
+    /**
+     * Sends the requests, each of which works on the key at the same index, grouped by hash slot. The
+     * responses are returned in the order of the requests; the result fails if any group fails.
+     */
+    public static Future<List<Response>> batch(RedisConnection conn, List<Request> requests, List<String> keys) {
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            groups.computeIfAbsent(slot(keys.get(i)), slot -> new ArrayList<>()).add(i);
+        }
+
+        Response[] responses = new Response[requests.size()];
+        List<Future<Void>> sent = new ArrayList<>(groups.size());
+        for (List<Integer> group : groups.values()) {
+            if (group.size() == 1) {
+                int index = group.get(0);
+                sent.add(conn.send(requests.get(index)).map(response -> {
+                    responses[index] = response;
+                    return null;
+                }));
+            } else {
+                List<Request> groupRequests = new ArrayList<>(group.size());
+                for (int index : group) {
+                    groupRequests.add(requests.get(index));
+                }
+                sent.add(conn.batch(groupRequests).map(groupResponses -> {
+                    for (int i = 0; i < group.size(); i++) {
+                        responses[group.get(i)] = groupResponses.get(i);
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        return Future.all(sent).map(v -> Arrays.asList(responses));
+    }
+
+    private static int indexOf(byte[] bytes, byte value, int from) {
+        for (int i = from; i < bytes.length; i++) {
+            if (bytes[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
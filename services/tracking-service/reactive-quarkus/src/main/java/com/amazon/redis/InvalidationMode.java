@@ -0,0 +1,40 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.redis;
+
+/**
+ * How the near cache learns about programs that changed in Redis.
+ */
+public enum InvalidationMode {
+
+    /**
+     * Updated programs are published as JSON documents on the pub/sub channel and every node stores them.
+     */
+    PUBSUB,
+
+    /**
+     * Redis server-assisted client-side caching: lookups are sent on a connection with
+     * {@code CLIENT TRACKING ON}, and Redis pushes an invalidation message on it when a key this node has
+     * read is modified. Only the keys are sent, and only to the nodes that read them. Requires RESP3,
+     * that is Redis 6 or later.
+     */
+    TRACKING;
+
+    public static InvalidationMode parse(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.redis;
+
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import static io.vertx.redis.client.Command.*;
+import static io.vertx.redis.client.Request.cmd;
+
+/**
+ * Deletes the program records of one key prefix without blocking Redis.
+ * <p>
+ * Keys are iterated with {@code SCAN MATCH prefix*} and each page is deleted with {@code UNLINK}, which
+ * frees the memory in a background thread of Redis. Other clients are served between the pages, unlike
+ * with {@code FLUSHALL}, and keys outside the prefix are left alone. On a cluster every primary is
+ * scanned through a connection of its own, since {@code SCAN} only covers the node it is sent to, and
+ * keys are unlinked one per command because a single {@code UNLINK} must not span hash slots.
+ * <p>
+ * Without a prefix program records can't be told apart from other keys, so the purge is refused rather
+ * than flushing the database.
+ */
+public class KeyPurge {
+
+    private static final Logger LOGGER = Logger.getLogger(KeyPurge.class.getName());
+
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final Vertx vertx;
+    private final Redis redis;
+    private final RedisOptions options;
+    private final String prefix;
+    private final int scanCount;
+
+    private final long start = System.nanoTime();
+    private long lastProgress = start;
+    private long deleted;
+
+    public KeyPurge(Vertx vertx, Redis redis, RedisOptions options, String prefix, int scanCount) {
+        this.vertx = vertx;
+        this.redis = redis;
+        this.options = options;
+        this.prefix = prefix;
+        this.scanCount = scanCount;
+    }
+
+    /**
+     * Runs the purge.
+     *
+     * @return the number of keys deleted
+     */
+    public Future<Long> run() {
+        if (prefix.isEmpty()) {
+            return Future.failedFuture(new IllegalStateException("No key prefix configured, set tracking.redis.key-prefix to purge program records"));
+        }
+
+        LOGGER.info("Purging keys with prefix " + prefix);
+        Future<Void> purged;
+        if (options.getType() == RedisClientType.CLUSTER) {
+            purged = primaries().compose(primaries -> {
+                List<Future<Void>> nodes = new ArrayList<>(primaries.size());
+                for (String primary : primaries) {
+                    Redis node = Redis.createClient(vertx, new RedisOptions(options)
+                            .setType(RedisClientType.STANDALONE)
+                            .setEndpoints(List.of(primary)));
+                    nodes.add(scan(node, "0", true).onComplete(ar -> node.close()));
+                }
+                return Future.all(nodes).mapEmpty();
+            });
+        } else {
+            purged = scan(redis, "0", false);
+        }
+
+        return purged
+                .map(v -> deleted)
+                .onSuccess(count -> LOGGER.info("Purged keys with prefix " + prefix + ": " + progress()));
+    }
+
+    private Future<Void> scan(Redis node, String cursor, boolean keyPerCommand) {
+        return node
+                .send(cmd(SCAN).arg(cursor).arg("MATCH").arg(pattern()).arg("COUNT").arg(scanCount))
+                .compose(page -> {
+                    String next = page.get(0).toString();
+                    Response keys = page.get(1);
+                    return unlink(node, keys, keyPerCommand)
+                            .compose(v -> "0".equals(next) ? Future.succeededFuture() : scan(node, next, keyPerCommand));
+                });
+    }
+
+    private Future<Void> unlink(Redis node, Response keys, boolean keyPerCommand) {
+        if (keys.size() == 0) {
+            return Future.succeededFuture();
+        }
+
+        // UNLINK replies with the number of keys it removed, which leaves out keys that expired or were
+        // deleted since the page was scanned
+        Future<Long> unlinked;
+        if (keyPerCommand) {
+            List<Request> requests = new ArrayList<>(keys.size());
+            for (Response key : keys) {
+                requests.add(cmd(UNLINK).arg(key.toBytes()));
+            }
+            unlinked = node.batch(requests).map(replies -> {
+                long count = 0;
+                for (Response reply : replies) {
+                    count += reply.toLong();
+                }
+                return count;
+            });
+        } else {
+            Request request = cmd(UNLINK);
+            for (Response key : keys) {
+                request.arg(key.toBytes());
+            }
+            unlinked = node.send(request).map(Response::toLong);
+        }
+
+        return unlinked.map(count -> {
+            deleted += count;
+            long now = System.nanoTime();
+            if (now - lastProgress > PROGRESS_INTERVAL_NANOS) {
+                lastProgress = now;
+                LOGGER.info("Purging keys with prefix " + prefix + ": " + progress());
+            }
+            return null;
+        });
+    }
+
+    private String progress() {
+        long durationMs = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+        return deleted + " keys deleted in " + durationMs + " ms, " + deleted * 1000 / durationMs + " keys/s";
+    }
+
+    /**
+     * The endpoints of the primaries of the cluster, with the scheme and credentials of the configured ones.
+     */
+    private Future<Set<String>> primaries() {
+        URI seed = URI.create(options.getEndpoint());
+        return redis
+                .send(cmd(CLUSTER).arg("SLOTS"))
+                .map(slots -> {
+                    Set<String> primaries = new LinkedHashSet<>();
+                    for (Response range : slots) {
+                        // start, end, primary (host, port, id), replicas...
+                        Response primary = range.get(2);
+                        try {
+                            primaries.add(new URI(seed.getScheme(), seed.getUserInfo(), primary.get(0).toString(),
+                                    primary.get(1).toInteger(), seed.getPath(), null, null).toString());
+                        } catch (URISyntaxException exc) {
+                            throw new IllegalStateException(exc);
+                        }
+                    }
+                    return primaries;
+                });
+    }
+
+    // Glob characters in the prefix must match literally
+    private String pattern() {
+        StringBuilder pattern = new StringBuilder(prefix.length() + 2);
+        for (char c : prefix.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('*').toString();
+    }
+}
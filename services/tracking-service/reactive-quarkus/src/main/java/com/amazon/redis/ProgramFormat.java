@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.redis;
+
+import com.amazon.codec.ProgramRecordCodec;
+import com.amazon.vo.Program;
+import io.vertx.core.json.JsonObject;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
+
+import static io.vertx.redis.client.Command.*;
+import static io.vertx.redis.client.Request.cmd;
+
+/**
+ * How programs are stored in Redis.
+ * <p>
+ * Both formats use the programId as key, so a key holds either format. Reading a key with the command of
+ * the other format fails with a {@code WRONGTYPE} error; {@link #isWrongType(Throwable)} detects this
+ * so that the lookup can be repeated with {@link #other()}, which lets nodes switch formats while Redis
+ * still holds programs written in the old one.
+ */
+public enum ProgramFormat {
+
+    /**
+     * A hash with one field per property, written with {@code HMSET} and read with {@code HGETALL}.
+     */
+    HASH {
+        @Override
+        public Request store(String key, Program program) {
+            return cmd(HMSET).arg(key).arg(JsonObject.mapFrom(program));
+        }
+
+        @Override
+        public Request lookup(String key) {
+            return cmd(HGETALL).arg(key);
+        }
+
+        @Override
+        public Program read(Response result) {
+            if (null == result || result.size() == 0) {
+                return null;
+            }
+            return new Program(
+                    result.get("programId").toString(),
+                    result.get("programName").toString(),
+                    result.get("checksum").toString(),
+                    result.get("customerId").toInteger(),
+                    result.get("customerName").toString(),
+                    result.get("valid").toBoolean());
+        }
+
+        @Override
+        public ProgramFormat other() {
+            return BINARY;
+        }
+    },
+
+    /**
+     * A string holding a {@code ProgramRecord} protobuf message, written with {@code SET} and read with
+     * {@code GET}. It takes a fraction of the memory of a hash and is decoded in one pass.
+     */
+    BINARY {
+        @Override
+        public Request store(String key, Program program) {
+            return cmd(SET).arg(key).arg(ProgramRecordCodec.encode(program));
+        }
+
+        @Override
+        public Request lookup(String key) {
+            return cmd(GET).arg(key);
+        }
+
+        @Override
+        public Program read(Response result) {
+            if (null == result) {
+                return null;
+            }
+            return ProgramRecordCodec.decode(result.toBytes());
+        }
+
+        @Override
+        public ProgramFormat other() {
+            return HASH;
+        }
+    };
+
+    public abstract Request store(String key, Program program);
+
+    public abstract Request lookup(String key);
+
+    /**
+     * Converts the reply to {@link #lookup(String)}, {@code null} if the key doesn't exist.
+     */
+    public abstract Program read(Response result);
+
+    public abstract ProgramFormat other();
+
+    /**
+     * Whether a command, or one of the commands of a batch, failed because the key holds the other format.
+     */
+    public static boolean isWrongType(Throwable err) {
+        return err.getMessage() != null && err.getMessage().contains("WRONGTYPE");
+    }
+
+    public static ProgramFormat parse(String value) {
+        return valueOf(value.trim().toUpperCase());
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.tracing;
+
+import io.vertx.core.eventbus.DeliveryOptions;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One stage of a traced tracking event. Requests that are not sampled get {@link #NOOP}, which records
+ * nothing and adds no headers, so callers don't need to check whether a request is traced.
+ * <p>
+ * A span is used on one event loop; it is handed to the exporter once it has ended.
+ */
+public final class Span {
+
+    /**
+     * Span kinds with their OTLP numbers.
+     */
+    public enum Kind {
+        INTERNAL(1), SERVER(2), CLIENT(3), CONSUMER(5);
+
+        final int otlp;
+
+        Kind(int otlp) {
+            this.otlp = otlp;
+        }
+    }
+
+    public static final Span NOOP = new Span(null, null, null, null, null, null, 0);
+
+    private final Tracer tracer;
+    private final String name;
+    private final Kind kind;
+    private final String traceId;
+    private final String spanId;
+    private final String parentSpanId;
+    private final long startNanos;
+    private String linkedTraceId;
+    private String linkedSpanId;
+    private long endNanos;
+    private Map<String, Object> attributes;
+    private String error;
+
+    Span(Tracer tracer, String name, Kind kind, String traceId, String spanId, String parentSpanId, long startNanos) {
+        this.tracer = tracer;
+        this.name = name;
+        this.kind = kind;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Links this span to the span that caused it, for work that outlives the request that started it and
+     * is therefore traced on its own.
+     */
+    void linkTo(Span cause) {
+        linkedTraceId = cause.traceId;
+        linkedSpanId = cause.spanId;
+    }
+
+    public boolean isRecording() {
+        return tracer != null;
+    }
+
+    public Span setAttribute(String key, Object value) {
+        if (tracer != null) {
+            if (attributes == null) {
+                attributes = new LinkedHashMap<>();
+            }
+            attributes.put(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * Returns the options with the context of this span added as {@code traceparent} header, so that the
+     * receiver of the message can continue the trace. The given options are returned as they are if the
+     * span doesn't record.
+     */
+    public DeliveryOptions propagate(DeliveryOptions options) {
+        if (tracer == null) {
+            return options;
+        }
+        return new DeliveryOptions(options).addHeader(Tracer.TRACEPARENT, traceparent());
+    }
+
+    public void end() {
+        end(null);
+    }
+
+    /**
+     * Ends the span, as failed if {@code err} is not {@code null}.
+     */
+    public void end(Throwable err) {
+        if (tracer == null || endNanos != 0) {
+            return;
+        }
+        endNanos = System.nanoTime();
+        if (err != null) {
+            error = String.valueOf(err.getMessage());
+        }
+        tracer.finish(this);
+    }
+
+    String traceparent() {
+        return "00-" + traceId + "-" + spanId + "-01";
+    }
+
+    Tracer tracer() {
+        return tracer;
+    }
+
+    String name() {
+        return name;
+    }
+
+    Kind kind() {
+        return kind;
+    }
+
+    String traceId() {
+        return traceId;
+    }
+
+    String spanId() {
+        return spanId;
+    }
+
+    String parentSpanId() {
+        return parentSpanId;
+    }
+
+    String linkedTraceId() {
+        return linkedTraceId;
+    }
+
+    String linkedSpanId() {
+        return linkedSpanId;
+    }
+
+    long startNanos() {
+        return startNanos;
+    }
+
+    long endNanos() {
+        return endNanos;
+    }
+
+    Map<String, Object> attributes() {
+        return attributes;
+    }
+
+    String error() {
+        return error;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.tracing;
+
+import com.amazon.util.LogSampler;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.RequestOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Writes spans as OTLP/JSON {@code ExportTraceServiceRequest}s, either appended to a file with one request
+ * per line, the format the {@code otlpjsonfile} receiver of the OpenTelemetry Collector reads, or posted to
+ * the OTLP/HTTP endpoint of a collector, e.g. {@code http://localhost:4318/v1/traces}.
+ */
+class SpanExporter {
+
+    private static final Logger LOGGER = Logger.getLogger(SpanExporter.class.getName());
+
+    private static final String SERVICE_NAME = "tracking-service";
+    private static final String SCOPE_NAME = "com.amazon.tracing";
+    private static final int STATUS_ERROR = 2;
+
+    private final String target;
+    private final Future<AsyncFile> file;
+    private final HttpClient httpClient;
+    private final RequestOptions requestOptions;
+    private final LogSampler failureSampler = new LogSampler(60_000);
+
+    private SpanExporter(String target, Future<AsyncFile> file, HttpClient httpClient, RequestOptions requestOptions) {
+        this.target = target;
+        this.file = file;
+        this.httpClient = httpClient;
+        this.requestOptions = requestOptions;
+    }
+
+    static SpanExporter toFile(Vertx vertx, String path) {
+        Future<AsyncFile> file = vertx.fileSystem()
+                .open(path, new OpenOptions().setWrite(true).setCreate(true).setAppend(true))
+                .onFailure(err -> LOGGER.severe("Opening span file " + path + " failed: " + err.getMessage()));
+        return new SpanExporter(path, file, null, null);
+    }
+
+    static SpanExporter toEndpoint(Vertx vertx, String endpoint) {
+        RequestOptions requestOptions = new RequestOptions()
+                .setMethod(HttpMethod.POST)
+                .setAbsoluteURI(endpoint)
+                .putHeader("content-type", "application/json");
+        return new SpanExporter(endpoint, null, vertx.createHttpClient(), requestOptions);
+    }
+
+    void export(List<Span> spans) {
+        Buffer request = encode(spans).toBuffer();
+        Future<?> exported;
+        if (file != null) {
+            exported = file.compose(f -> f.write(request.appendString("\n")));
+        } else {
+            exported = httpClient
+                    .request(requestOptions)
+                    .compose(req -> req.send(request))
+                    .compose(res -> res.statusCode() / 100 == 2
+                            ? res.body()
+                            : Future.failedFuture("status " + res.statusCode()));
+        }
+        exported.onFailure(err -> {
+            long suppressed = failureSampler.sample();
+            if (suppressed >= 0) {
+                LOGGER.warning("Exporting " + spans.size() + " spans to " + target + " failed: " + err.getMessage() + LogSampler.suppressed(suppressed));
+            }
+        });
+    }
+
+    static JsonObject encode(List<Span> spans) {
+        JsonArray otlpSpans = new JsonArray();
+        for (Span span : spans) {
+            otlpSpans.add(encode(span));
+        }
+        JsonObject resource = new JsonObject()
+                .put("attributes", new JsonArray().add(attribute("service.name", SERVICE_NAME)));
+        JsonObject scopeSpans = new JsonObject()
+                .put("scope", new JsonObject().put("name", SCOPE_NAME))
+                .put("spans", otlpSpans);
+        return new JsonObject().put("resourceSpans", new JsonArray().add(new JsonObject()
+                .put("resource", resource)
+                .put("scopeSpans", new JsonArray().add(scopeSpans))));
+    }
+
+    private static JsonObject encode(Span span) {
+        // OTLP/JSON takes ids as hex and 64 bit integers as strings
+        JsonObject otlpSpan = new JsonObject()
+                .put("traceId", span.traceId())
+                .put("spanId", span.spanId());
+        if (span.parentSpanId() != null) {
+            otlpSpan.put("parentSpanId", span.parentSpanId());
+        }
+        otlpSpan
+                .put("name", span.name())
+                .put("kind", span.kind().otlp)
+                .put("startTimeUnixNano", Long.toString(span.tracer().toEpochNanos(span.startNanos())))
+                .put("endTimeUnixNano", Long.toString(span.tracer().toEpochNanos(span.endNanos())));
+        if (span.attributes() != null) {
+            JsonArray attributes = new JsonArray();
+            for (Map.Entry<String, Object> entry : span.attributes().entrySet()) {
+                attributes.add(attribute(entry.getKey(), entry.getValue()));
+            }
+            otlpSpan.put("attributes", attributes);
+        }
+        if (span.linkedSpanId() != null) {
+            otlpSpan.put("links", new JsonArray().add(new JsonObject()
+                    .put("traceId", span.linkedTraceId())
+                    .put("spanId", span.linkedSpanId())));
+        }
+        if (span.error() != null) {
+            otlpSpan.put("status", new JsonObject().put("code", STATUS_ERROR).put("message", span.error()));
+        }
+        return otlpSpan;
+    }
+
+    private static JsonObject attribute(String key, Object value) {
+        JsonObject otlpValue = new JsonObject();
+        if (value instanceof Boolean) {
+            otlpValue.put("boolValue", value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            otlpValue.put("intValue", value.toString());
+        } else if (value instanceof Number) {
+            otlpValue.put("doubleValue", ((Number) value).doubleValue());
+        } else {
+            otlpValue.put("stringValue", String.valueOf(value));
+        }
+        return new JsonObject().put("key", key).put("value", otlpValue);
+    }
+
+    @Override
+    public String toString() {
+        return target;
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.tracing;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static com.amazon.util.Constants.*;
+
+/**
+ * Traces a sample of the tracking events through the verticles, shared by all verticles of one Vert.x
+ * instance.
+ * <p>
+ * The HTTP verticle decides whether a request is traced: it continues a sampled W3C {@code traceparent}
+ * header of the request, or samples the given ratio of requests. The context of a traced request travels
+ * to the next verticle in the {@code traceparent} header of the event bus message, where the receiver picks
+ * it up with {@link #startConsumer(String, Message)}. Requests that are not traced cost a random number
+ * and a header lookup per hop.
+ * <p>
+ * Ended spans are queued and exported as OTLP by a {@link SpanExporter} every export interval; spans
+ * that don't fit into the queue are dropped.
+ */
+public class Tracer implements Shareable {
+
+    private static final Logger LOGGER = Logger.getLogger(Tracer.class.getName());
+
+    private static final String LOCAL_MAP_NAME = "com.amazon.tracing";
+
+    public static final String TRACEPARENT = "traceparent";
+
+    private static final double DEFAULT_SAMPLE_RATIO = 0.01;
+    private static final long DEFAULT_EXPORT_INTERVAL_MS = 1000;
+    private static final String DEFAULT_FILE = "/tmp/tracking-spans.json";
+    private static final int MAX_QUEUED_SPANS = 8192;
+
+    private final boolean enabled;
+    private final double sampleRatio;
+    private final SpanExporter exporter;
+
+    // Converts System.nanoTime() into the epoch nanoseconds OTLP uses
+    private final long epochOffsetNanos = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+
+    private final Queue<Span> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+
+    private Tracer(Vertx vertx, JsonObject config) {
+        enabled = config.getBoolean(TRACING_ENABLED, false);
+        sampleRatio = config.getDouble(TRACING_SAMPLE_RATIO, DEFAULT_SAMPLE_RATIO);
+        if (!enabled) {
+            exporter = null;
+            return;
+        }
+
+        String endpoint = config.getString(TRACING_ENDPOINT, "");
+        exporter = endpoint.isEmpty()
+                ? SpanExporter.toFile(vertx, config.getString(TRACING_FILE, DEFAULT_FILE))
+                : SpanExporter.toEndpoint(vertx, endpoint);
+        vertx.setPeriodic(config.getLong(TRACING_EXPORT_INTERVAL_MS, DEFAULT_EXPORT_INTERVAL_MS), id -> flush());
+        LOGGER.info("Tracing " + sampleRatio * 100 + "% of the requests to " + exporter);
+    }
+
+    /**
+     * Returns the tracer of the given Vert.x instance, creating it with the given configuration on first use.
+     */
+    public static Tracer get(Vertx vertx, JsonObject config) {
+        return vertx.sharedData().<String, Tracer>getLocalMap(LOCAL_MAP_NAME)
+                .computeIfAbsent(Tracer.class.getName(), key -> new Tracer(vertx, config));
+    }
+
+    /**
+     * Starts the span of an HTTP request, continuing the trace of its {@code traceparent} header if it has
+     * a valid one. Returns {@link Span#NOOP} if the request is not traced.
+     */
+    public Span startServer(String name, String traceparent) {
+        if (!enabled) {
+            return Span.NOOP;
+        }
+        if (isValid(traceparent)) {
+            if (!isSampled(traceparent)) {
+                return Span.NOOP;
+            }
+            return start(name, Span.Kind.SERVER, traceparent.substring(3, 35), traceparent.substring(36, 52));
+        }
+        if (ThreadLocalRandom.current().nextDouble() >= sampleRatio) {
+            return Span.NOOP;
+        }
+        return start(name, Span.Kind.SERVER, randomId(2), null);
+    }
+
+    /**
+     * Starts the span of a request to another verticle; send it with the options returned by
+     * {@link Span#propagate}.
+     */
+    public Span startClient(String name, Span parent) {
+        if (!parent.isRecording()) {
+            return Span.NOOP;
+        }
+        return start(name, Span.Kind.CLIENT, parent.traceId(), parent.spanId());
+    }
+
+    /**
+     * Starts the root span of background work triggered by a request, e.g. refreshing a cached program, in
+     * a trace of its own with a link to the span of the request. The request may be answered and its span
+     * ended before the work completes. Returns {@link Span#NOOP} if the request is not traced.
+     */
+    public Span startLinked(String name, Span cause) {
+        if (!cause.isRecording()) {
+            return Span.NOOP;
+        }
+        Span span = start(name, Span.Kind.INTERNAL, randomId(2), null);
+        span.linkTo(cause);
+        return span;
+    }
+
+    /**
+     * Starts the span of handling an event bus message, continuing the trace of its sender.
+     */
+    public Span startConsumer(String name, Message<?> message) {
+        if (!enabled) {
+            return Span.NOOP;
+        }
+        return startConsumer(name, message.headers());
+    }
+
+    /**
+     * Starts the span of handling an event bus message with the given headers, which may be {@code null}.
+     */
+    public Span startConsumer(String name, MultiMap headers) {
+        String traceparent = enabled && headers != null ? headers.get(TRACEPARENT) : null;
+        if (!isValid(traceparent)) {
+            return Span.NOOP;
+        }
+        return start(name, Span.Kind.CONSUMER, traceparent.substring(3, 35), traceparent.substring(36, 52));
+    }
+
+    private Span start(String name, Span.Kind kind, String traceId, String parentSpanId) {
+        return new Span(this, name, kind, traceId, randomId(1), parentSpanId, System.nanoTime());
+    }
+
+    long toEpochNanos(long nanoTime) {
+        return nanoTime + epochOffsetNanos;
+    }
+
+    void finish(Span span) {
+        if (queued.incrementAndGet() > MAX_QUEUED_SPANS) {
+            queued.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        queue.add(span);
+    }
+
+    private void flush() {
+        List<Span> spans = new ArrayList<>(Math.min(queued.get(), MAX_QUEUED_SPANS));
+        Span span;
+        while ((span = queue.poll()) != null) {
+            queued.decrementAndGet();
+            spans.add(span);
+        }
+        long droppedSpans = dropped.sumThenReset();
+        if (droppedSpans > 0) {
+            LOGGER.warning("Dropped " + droppedSpans + " spans, the export queue was full");
+        }
+        if (!spans.isEmpty()) {
+            exporter.export(spans);
+        }
+    }
+
+    /**
+     * Whether the header is a version 00 {@code traceparent} with non-zero ids.
+     */
+    private static boolean isValid(String traceparent) {
+        if (traceparent == null || traceparent.length() != 55 || !traceparent.startsWith("00-")
+                || traceparent.charAt(35) != '-' || traceparent.charAt(52) != '-') {
+            return false;
+        }
+        return isHex(traceparent, 3, 35) && isHex(traceparent, 36, 52) && isHex(traceparent, 53, 55)
+                && !isZero(traceparent, 3, 35) && !isZero(traceparent, 36, 52);
+    }
+
+    private static boolean isSampled(String traceparent) {
+        return (Character.digit(traceparent.charAt(54), 16) & 1) == 1;
+    }
+
+    private static boolean isHex(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(String s, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (s.charAt(i) != '0') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A random non-zero id of the given number of longs, as lowercase hex.
+     */
+    private static String randomId(int longs) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        StringBuilder id = new StringBuilder(longs * 16);
+        for (int i = 0; i < longs; i++) {
+            long value = random.nextLong();
+            while (value == 0) {
+                value = random.nextLong();
+            }
+            String hex = Long.toHexString(value);
+            id.append("0".repeat(16 - hex.length())).append(hex);
+        }
+        return id.toString();
+    }
+}
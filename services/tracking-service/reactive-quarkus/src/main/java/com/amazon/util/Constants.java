@@ -24,12 +24,74 @@ public class Constants {
     public final static String REDIS_PURGE_EVENTBUS_ADDRESS = "com.amazon.redis.purge.handler";
     public final static String CACHE_STORE_EVENTBUS_ADDRESS = "com.amazon.cache.store.handler";
     public final static String CACHE_PURGE_EVENTBUS_ADDRESS = "com.amazon.cache.purge.handler";
+    public final static String CACHE_FILLED_EVENTBUS_ADDRESS = "com.amazon.cache.filled.handler";
     public final static String CACHE_EVENTBUS_ADDRESS = "com.amazon.cache.handler";
     public final static String CACHE_REDIS_EVENTBUS_ADDRESS = "com.amazon.cache.redis.handler";
+    public final static String CACHE_INVALIDATE_EVENTBUS_ADDRESS = "com.amazon.cache.invalidate.handler";
+    public final static String CACHE_STATS_EVENTBUS_ADDRESS = "com.amazon.cache.stats.handler";
+    public final static String REDIS_STATS_EVENTBUS_ADDRESS = "com.amazon.redis.stats.handler";
     public final static String REDIS_PUBSUB_CHANNEL_VERTX = "io.vertx.redis.channel1";
     public final static String REDIS_PUBSUB_CHANNEL = "channel1";
 
     public final static String REDIS_HOST = "REDIS_HOST";
     public final static String REDIS_PORT = "REDIS_PORT";
     public final static String STREAM_NAME = "EVENT_STREAM";
+
+    public final static String CONFIG_PREFIX = "tracking.";
+    public final static String HTTP_INSTANCES = "tracking.http.instances";
+    public final static String CACHE_INSTANCES = "tracking.cache.instances";
+    public final static String CACHE_MAX_ENTRIES = "tracking.cache.max-entries";
+    public final static String CACHE_EXPIRE_AFTER_WRITE_MS = "tracking.cache.expire-after-write-ms";
+    public final static String CACHE_REFRESH_AFTER_WRITE_MS = "tracking.cache.refresh-after-write-ms";
+    public final static String CACHE_STALE_TTL_MS = "tracking.cache.stale-ttl-ms";
+    public final static String CACHE_LOOKUP_TIMEOUT_MS = "tracking.cache.lookup.timeout-ms";
+    public final static String CACHE_BREAKER_FAILURE_THRESHOLD = "tracking.cache.breaker.failure-threshold";
+    public final static String CACHE_BREAKER_RESET_TIMEOUT_MS = "tracking.cache.breaker.reset-timeout-ms";
+    public final static String CACHE_NEGATIVE_TTL_MS = "tracking.cache.negative.ttl-ms";
+    public final static String CACHE_NEGATIVE_MAX_ENTRIES = "tracking.cache.negative.max-entries";
+    public final static String CACHE_BLOOM_ENABLED = "tracking.cache.bloom.enabled";
+    public final static String CACHE_BLOOM_EXPECTED_INSERTIONS = "tracking.cache.bloom.expected-insertions";
+    public final static String CACHE_BLOOM_FPP = "tracking.cache.bloom.fpp";
+    public final static String CACHE_INVALIDATION = "tracking.cache.invalidation";
+    public final static String REDIS_MODE = "tracking.redis.mode";
+    public final static String REDIS_ENDPOINTS = "tracking.redis.endpoints";
+    public final static String REDIS_USE_REPLICAS = "tracking.redis.use-replicas";
+    public final static String REDIS_PUBSUB_MIN_BACKOFF_MS = "tracking.redis.pubsub.min-backoff-ms";
+    public final static String REDIS_PUBSUB_MAX_BACKOFF_MS = "tracking.redis.pubsub.max-backoff-ms";
+    public final static String REDIS_KEY_PREFIX = "tracking.redis.key-prefix";
+    public final static String REDIS_FORMAT = "tracking.redis.format";
+    public final static String REDIS_PURGE_SCAN_COUNT = "tracking.redis.purge.scan-count";
+    public final static String REDIS_STORE_BATCH_SIZE = "tracking.redis.store.batch-size";
+    public final static String REDIS_STORE_MAX_BATCHES_IN_FLIGHT = "tracking.redis.store.max-batches-in-flight";
+    public final static String REDIS_LOOKUP_BATCH_SIZE = "tracking.redis.lookup.batch-size";
+    public final static String REDIS_LOOKUP_WINDOW_MS = "tracking.redis.lookup.window-ms";
+    public final static String FILL_MAX_PENDING = "tracking.fill.max-pending";
+    public final static String FILL_FILE = "tracking.fill.file";
+    public final static String FILL_PROGRESS_INTERVAL_MS = "tracking.fill.progress-interval-ms";
+    public final static String KINESIS_BATCH_MAX_RECORDS = "tracking.kinesis.batch.max-records";
+    public final static String KINESIS_BATCH_MAX_BYTES = "tracking.kinesis.batch.max-bytes";
+    public final static String KINESIS_BATCH_LINGER_MS = "tracking.kinesis.batch.linger-ms";
+    public final static String KINESIS_MAX_ATTEMPTS = "tracking.kinesis.max-attempts";
+    public final static String KINESIS_RETRY_MIN_BACKOFF_MS = "tracking.kinesis.retry.min-backoff-ms";
+    public final static String KINESIS_RETRY_MAX_BACKOFF_MS = "tracking.kinesis.retry.max-backoff-ms";
+    public final static String KINESIS_MAX_IN_FLIGHT = "tracking.kinesis.max-in-flight";
+    public final static String KINESIS_OVERFLOW_POLICY = "tracking.kinesis.overflow.policy";
+    public final static String KINESIS_OVERFLOW_BLOCK_TIMEOUT_MS = "tracking.kinesis.overflow.block-timeout-ms";
+    public final static String KINESIS_SPILL_ENABLED = "tracking.kinesis.spill.enabled";
+    public final static String KINESIS_SPILL_DIR = "tracking.kinesis.spill.dir";
+    public final static String KINESIS_SPILL_SEGMENT_BYTES = "tracking.kinesis.spill.segment-bytes";
+    public final static String KINESIS_SPILL_MAX_BYTES = "tracking.kinesis.spill.max-bytes";
+    public final static String KINESIS_SPILL_DRAIN_INTERVAL_MS = "tracking.kinesis.spill.drain-interval-ms";
+    public final static String KINESIS_SPILL_MAX_BACKOFF_MS = "tracking.kinesis.spill.max-backoff-ms";
+    public final static String KINESIS_SHUTDOWN_TIMEOUT_MS = "tracking.kinesis.shutdown-timeout-ms";
+    public final static String KINESIS_AGGREGATION_ENABLED = "tracking.kinesis.aggregation.enabled";
+    public final static String KINESIS_AGGREGATION_MAX_BYTES = "tracking.kinesis.aggregation.max-bytes";
+    public final static String KINESIS_AGGREGATION_HASH_RANGES = "tracking.kinesis.aggregation.hash-ranges";
+    public final static String LOG_SAMPLE_INTERVAL_MS = "tracking.log.sample-interval-ms";
+    public final static String METRICS_ENABLED = "tracking.metrics.enabled";
+    public final static String TRACING_ENABLED = "tracking.tracing.enabled";
+    public final static String TRACING_SAMPLE_RATIO = "tracking.tracing.sample-ratio";
+    public final static String TRACING_FILE = "tracking.tracing.file";
+    public final static String TRACING_ENDPOINT = "tracking.tracing.endpoint";
+    public final static String TRACING_EXPORT_INTERVAL_MS = "tracking.tracing.export-interval-ms";
 }
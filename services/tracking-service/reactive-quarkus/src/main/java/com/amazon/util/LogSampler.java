@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits a message that is logged per event to one per interval, so that a flood of events, or of
+ * failures during an outage, doesn't turn into a flood of log lines. Use it behind a level check:
+ * <pre>
+ * if (LOGGER.isLoggable(Level.FINE) &amp;&amp; (suppressed = sampler.sample()) &gt;= 0) {
+ *     LOGGER.fine("..." + LogSampler.suppressed(suppressed));
+ * }
+ * </pre>
+ * Instances are thread-safe.
+ */
+public final class LogSampler {
+
+    private final long intervalNanos;
+    private final AtomicLong next = new AtomicLong(System.nanoTime());
+    private final LongAdder suppressed = new LongAdder();
+
+    /**
+     * @param intervalMs minimum time between two logged messages, {@code 0} logs every message
+     */
+    public LogSampler(long intervalMs) {
+        this.intervalNanos = intervalMs * 1_000_000;
+    }
+
+    /**
+     * Whether to log the message now.
+     *
+     * @return the number of messages suppressed since the last one that was logged, or {@code -1} if this
+     * one is suppressed as well
+     */
+    public long sample() {
+        if (intervalNanos <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long at = next.get();
+        if (now - at >= 0 && next.compareAndSet(at, now + intervalNanos)) {
+            return suppressed.sumThenReset();
+        }
+        suppressed.increment();
+        return -1;
+    }
+
+    /**
+     * Suffix of a logged message telling how many similar ones were suppressed before it.
+     */
+    public static String suppressed(long count) {
+        return count > 0 ? " (" + count + " similar messages suppressed)" : "";
+    }
+}
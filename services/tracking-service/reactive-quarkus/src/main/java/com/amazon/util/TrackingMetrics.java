@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.util;
+
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.vertx.micrometer.Label;
+import io.vertx.micrometer.MicrometerMetricsOptions;
+import io.vertx.micrometer.backends.BackendRegistries;
+
+import java.time.Duration;
+
+/**
+ * The Prometheus registry behind {@code /metrics}.
+ * <p>
+ * Vert.x reports its own metrics to it: HTTP requests per route, pending and processed messages per
+ * event bus address, the connection pools of its clients and the JVM. The verticles add
+ * a timer per stage of a tracking event ({@link #stage(String)}), the near cache and the Kinesis pipeline.
+ * Timers keep an HDR histogram for the percentiles they publish, and export their buckets as well, so that
+ * the percentiles of a fleet can be computed in Prometheus.
+ */
+public final class TrackingMetrics {
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+    // Range of the histogram buckets of timers, in nanoseconds
+    private static final double MIN_EXPECTED_NANOS = Duration.ofNanos(100_000).toNanos();
+    private static final double MAX_EXPECTED_NANOS = Duration.ofSeconds(30).toNanos();
+
+    // Used when Vert.x was started without metrics, meters registered there are dropped
+    private static final MeterRegistry NOOP_REGISTRY = new CompositeMeterRegistry();
+
+    private TrackingMetrics() {
+    }
+
+    /**
+     * Options for a Vert.x instance that reports to a new Prometheus registry.
+     */
+    public static MicrometerMetricsOptions options() {
+        PrometheusMeterRegistry registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        registry.config().meterFilter(new MeterFilter() {
+            @Override
+            public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                if (id.getType() != Meter.Type.TIMER) {
+                    return config;
+                }
+                return DistributionStatisticConfig.builder()
+                        .percentiles(PERCENTILES)
+                        .percentilesHistogram(true)
+                        .minimumExpectedValue(MIN_EXPECTED_NANOS)
+                        .maximumExpectedValue(MAX_EXPECTED_NANOS)
+                        .build()
+                        .merge(config);
+            }
+        });
+
+        return new MicrometerMetricsOptions()
+                .setEnabled(true)
+                .setMicrometerRegistry(registry)
+                .setJvmMetricsEnabled(true)
+                .addLabels(Label.HTTP_ROUTE, Label.EB_ADDRESS);
+    }
+
+    /**
+     * The registry of the Vert.x instance, or one that drops all meters if it has no metrics enabled.
+     */
+    public static MeterRegistry registry() {
+        MeterRegistry registry = BackendRegistries.getDefaultNow();
+        return registry != null ? registry : NOOP_REGISTRY;
+    }
+
+    /**
+     * Renders the metrics in the Prometheus text format, or returns {@code null} without metrics.
+     */
+    public static String scrape() {
+        MeterRegistry registry = registry();
+        return registry instanceof PrometheusMeterRegistry ? ((PrometheusMeterRegistry) registry).scrape() : null;
+    }
+
+    /**
+     * Timer of one stage of a tracking event, e.g. the lookup in Redis.
+     */
+    public static Timer stage(String stage) {
+        return Timer.builder("tracking.stage")
+                .description("Time spent in a stage of a tracking event")
+                .tag("stage", stage)
+                .register(registry());
+    }
+}
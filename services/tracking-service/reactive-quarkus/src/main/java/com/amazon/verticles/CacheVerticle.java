@@ -16,18 +16,27 @@
 
 package com.amazon.verticles;
 
+import com.amazon.cache.CircuitBreaker;
+import com.amazon.cache.ProgramCache;
+import com.amazon.tracing.Span;
+import com.amazon.tracing.Tracer;
 import com.amazon.util.Constants;
-import com.amazon.vo.TrackingMessage;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.amazon.util.LogSampler;
+import com.amazon.util.TrackingMetrics;
+import com.amazon.vo.Program;
+import io.micrometer.core.instrument.Timer;
 import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
-import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonObject;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonArray;
 import jakarta.enterprise.context.ApplicationScoped;
 
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @ApplicationScoped
@@ -35,30 +44,70 @@ public class CacheVerticle extends AbstractVerticle {
 
     private static final Logger LOGGER = Logger.getLogger(CacheVerticle.class.getName());
 
-    private static final int MAX_CACHE_ENTRIES = 100000;
-    private static final int ENTRY_EXPIRE_TIME = 10;
+    private static final long DEFAULT_LOOKUP_TIMEOUT_MS = 250;
+    private static final long DEFAULT_LOG_SAMPLE_INTERVAL_MS = 1000;
 
-    private static final Cache<String, TrackingMessage> CACHE = CacheBuilder.newBuilder().
-            maximumSize(MAX_CACHE_ENTRIES).
-            expireAfterWrite(ENTRY_EXPIRE_TIME, TimeUnit.MINUTES).
-            build();
+    // Failure code of the reply to a lookup that neither Redis nor a stale entry could answer
+    public static final int REDIS_UNAVAILABLE = 503;
+
+    // The same instances are used by all deployed instances of this verticle
+    private ProgramCache cache;
+    private CircuitBreaker breaker;
+    private DeliveryOptions lookupDeliveryOptions;
+    private Timer redisTimer;
+    private Tracer tracer;
+
+    // Messages logged per lookup, and per failed lookup
+    private LogSampler traceSampler;
+    private LogSampler failureSampler;
 
     @Override
     public void start() {
         LOGGER.info("Starting " + this.getClass().getName());
         EventBus eb = vertx.eventBus().getDelegate();
+        cache = ProgramCache.get(vertx.getDelegate(), config());
+        breaker = CircuitBreaker.get(vertx.getDelegate(), config());
+        cache.bindTo(TrackingMetrics.registry());
+        breaker.bindTo(TrackingMetrics.registry());
+        redisTimer = TrackingMetrics.stage("redis");
+        tracer = Tracer.get(vertx.getDelegate(), config());
+        lookupDeliveryOptions = new DeliveryOptions()
+                .setSendTimeout(config().getLong(Constants.CACHE_LOOKUP_TIMEOUT_MS, DEFAULT_LOOKUP_TIMEOUT_MS));
+        long sampleIntervalMs = config().getLong(Constants.LOG_SAMPLE_INTERVAL_MS, DEFAULT_LOG_SAMPLE_INTERVAL_MS);
+        traceSampler = new LogSampler(sampleIntervalMs);
+        failureSampler = new LogSampler(sampleIntervalMs);
 
         this.registerToEventBusToGetData(eb);
         this.registerToEventBusForUpdates(eb);
         this.registerToEventBusToFill(eb);
+        this.registerToEventBusForStats(eb);
+
+        eb.consumer(Constants.CACHE_PURGE_EVENTBUS_ADDRESS, message -> cache.invalidateAll());
+        eb.consumer(Constants.CACHE_FILLED_EVENTBUS_ADDRESS, message -> cache.markFilled());
+        eb.<JsonArray>consumer(Constants.CACHE_INVALIDATE_EVENTBUS_ADDRESS, this::invalidate);
+    }
 
-        eb.consumer(Constants.CACHE_PURGE_EVENTBUS_ADDRESS, message -> CACHE.cleanUp());
+    private void writeDataToCache(final Message<Program> message) {
+        Program program = message.body();
+        cache.put(program);
+        long suppressed;
+        if (LOGGER.isLoggable(Level.FINE) && (suppressed = traceSampler.sample()) >= 0) {
+            LOGGER.fine("Stored " + program + " in cache" + LogSampler.suppressed(suppressed));
+        }
     }
 
-    private void writeDataToCache(final Message<JsonObject> message) {
-        TrackingMessage trackingMessage = Json.decodeValue(message.body().encode(), TrackingMessage.class);
-        CACHE.put(trackingMessage.getProgramId(), trackingMessage);
-        LOGGER.info("Stored the following key/value-pair in cache: " + trackingMessage.getProgramId() + " -> " + message.body());
+    /**
+     * Drops the programs Redis reported as changed, or all programs if the message has no body.
+     */
+    private void invalidate(final Message<JsonArray> message) {
+        JsonArray programIds = message.body();
+        if (programIds == null) {
+            cache.invalidatePrograms();
+            return;
+        }
+        for (int i = 0; i < programIds.size(); i++) {
+            cache.invalidate(programIds.getString(i));
+        }
     }
 
     private void registerToEventBusToFill(final EventBus eb) {
@@ -70,53 +119,119 @@ public class CacheVerticle extends AbstractVerticle {
         // Writing the data into the cache
         // Called from Redis verticle (Redis pub/sub-update)
         eb
-                .<JsonObject>consumer(Constants.CACHE_REDIS_EVENTBUS_ADDRESS)
-                .handler(message -> {
-                    LOGGER.fine("I have received a message: " + message.body());
-                    LOGGER.fine("Message type: " + message.body().getClass().getName());
-                    writeDataToCache(message);
-                });
+                .<Program>consumer(Constants.CACHE_REDIS_EVENTBUS_ADDRESS)
+                .handler(this::writeDataToCache);
     }
 
     private void registerToEventBusToGetData(final EventBus eb) {
         eb
-                .<JsonObject>consumer(Constants.CACHE_EVENTBUS_ADDRESS)
+                .<String>consumer(Constants.CACHE_EVENTBUS_ADDRESS)
                 .handler(message -> {
                     // Is data stored in cache?
 
-                    TrackingMessage trackingMessage = Json.decodeValue(message.body().encode(), TrackingMessage.class);
-                    LOGGER.info("Trying to find the following data: " + trackingMessage.getProgramId());
-                    TrackingMessage value = CACHE.getIfPresent(trackingMessage.getProgramId());
-
-                    if (null == value) {
-                        JsonObject msgToSend = JsonObject.mapFrom(trackingMessage);
-                        LOGGER.info("Key " + trackingMessage.getProgramId() + " not found in cache --> Redis");
-                        eb
-                                .<JsonObject>request(Constants.REDIS_EVENTBUS_ADDRESS, msgToSend)
-                                .onSuccess(res -> {
-                                    JsonObject msg = res.body();
-
-                                    if (msg.isEmpty()) {
-                                        LOGGER.info("Couldn't find key " + trackingMessage.getProgramId() + " in Redis");
-                                        message.reply(msg);
-                                    } else {
-                                        LOGGER.info("Message from Redis-Verticle: " + msg);
-                                        TrackingMessage msgFromRedis = Json.decodeValue(msg.encode(), TrackingMessage.class);
-                                        CACHE.put(msgFromRedis.getProgramId(), msgFromRedis);
-
-                                        message.reply(msg);
-                                    }
+                    String programId = message.body();
+                    Span span = tracer.startConsumer("cache", message);
+                    Program value = cache.getIfPresent(programId, key -> refreshInRedis(eb, key, span));
+
+                    if (null != value) {
+                        // Programs are immutable, the cached instance can be shared as-is
+                        trace(programId, "found in cache");
+                        message.reply(value);
+                        span.setAttribute("cache.result", "hit").end();
+                    } else if (cache.isUnknown(programId)) {
+                        trace(programId, "known to be missing");
+                        message.reply(null);
+                        span.setAttribute("cache.result", "unknown").end();
+                    } else {
+                        trace(programId, "not cached, looking it up in Redis");
+                        span.setAttribute("cache.result", "miss");
+                        cache
+                                .load(programId, key -> lookupInRedis(eb, key, span))
+                                .onSuccess(program -> {
+                                    message.reply(program);
+                                    span.end();
                                 })
                                 .onFailure(err -> {
-                                    LOGGER.severe(err.getMessage());
-                                    message.reply(new JsonObject());
+                                    replyStale(message, programId, err, span);
+                                    span.end(err);
                                 });
+                    }
+                });
+    }
 
-                    } else {
-                        LOGGER.info("Message " + Json.encode(value) + " found in cache --> HttpVerticle");
-                        value.setMessageId(trackingMessage.getMessageId());
-                        message.reply(JsonObject.mapFrom(value));
+    /**
+     * Answers a lookup Redis failed, timed out or was not asked because the circuit breaker is open with the
+     * expired program of the near cache, if it still has one. The same goes for a program record Redis
+     * returned but that can't be read, except that it fails the lookup as an error if nothing is cached.
+     */
+    private void replyStale(final Message<String> message, final String programId, final Throwable err, final Span span) {
+        Program stale = cache.getStale(programId);
+        if (stale != null) {
+            trace(programId, isDecodeFailure(err) ? "served stale, its record can't be read" : "served stale, Redis is unavailable");
+            message.reply(stale);
+            span.setAttribute("cache.result", "stale");
+        } else if (isDecodeFailure(err)) {
+            message.fail(RedisVerticle.DECODE_FAILED, err.getMessage());
+        } else {
+            message.fail(REDIS_UNAVAILABLE, "Redis is unavailable and " + programId + " is not cached");
+        }
+    }
+
+    /**
+     * Looks up a program that is due for a refresh. The request is answered from the cache right away and
+     * its span ends before the lookup, so the lookup is traced on its own with a link to the request.
+     */
+    private Future<Program> refreshInRedis(final EventBus eb, final String programId, final Span cause) {
+        Span span = tracer.startLinked("cache refresh", cause);
+        return lookupInRedis(eb, programId, span).onComplete(ar -> span.end(ar.cause()));
+    }
+
+    /**
+     * Looks the program up in Redis, giving up after the lookup timeout. Lookups go through the circuit
+     * breaker, so while Redis keeps failing they fail right away.
+     */
+    private Future<Program> lookupInRedis(final EventBus eb, final String programId, final Span parent) {
+        // A record that can't be read was still returned by Redis, so it doesn't count against the breaker
+        return breaker
+                .execute(() -> {
+                    long start = System.nanoTime();
+                    Span span = tracer.startClient("redis", parent);
+                    return eb
+                            .<Program>request(Constants.REDIS_EVENTBUS_ADDRESS, programId, span.propagate(lookupDeliveryOptions))
+                            .onComplete(ar -> {
+                                redisTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                                span.end(ar.cause());
+                            });
+                }, err -> !isDecodeFailure(err))
+                .map(res -> {
+                    Program programFromRedis = res.body();
+                    trace(programId, programFromRedis == null ? "not found in Redis" : "loaded from Redis");
+                    return programFromRedis;
+                })
+                .onFailure(err -> {
+                    long suppressed;
+                    if (!(err instanceof CircuitBreaker.OpenException) && (suppressed = failureSampler.sample()) >= 0) {
+                        LOGGER.severe("Looking up " + programId + " in Redis failed: " + err.getMessage() + LogSampler.suppressed(suppressed));
                     }
                 });
     }
+
+    private static boolean isDecodeFailure(Throwable err) {
+        return err instanceof ReplyException
+                && ((ReplyException) err).failureType() == ReplyFailure.RECIPIENT_FAILURE
+                && ((ReplyException) err).failureCode() == RedisVerticle.DECODE_FAILED;
+    }
+
+    private void trace(String programId, String outcome) {
+        long suppressed;
+        if (LOGGER.isLoggable(Level.FINE) && (suppressed = traceSampler.sample()) >= 0) {
+            LOGGER.fine("Program " + programId + " " + outcome + LogSampler.suppressed(suppressed));
+        }
+    }
+
+    private void registerToEventBusForStats(final EventBus eb) {
+        eb
+                .consumer(Constants.CACHE_STATS_EVENTBUS_ADDRESS)
+                .handler(message -> message.reply(cache.stats().put("breaker", breaker.stats())));
+    }
 }
@@ -16,23 +16,43 @@
 
 package com.amazon.verticles;
 
+import com.amazon.cache.CacheFillStream;
+import com.amazon.tracing.Span;
+import com.amazon.tracing.Tracer;
 import com.amazon.util.Constants;
+import com.amazon.util.LogSampler;
+import com.amazon.util.TrackingMetrics;
+import com.amazon.vo.Program;
 import com.amazon.vo.TrackingMessage;
+import io.micrometer.core.instrument.Timer;
 import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.file.AsyncFile;
 import io.vertx.core.file.FileSystem;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpServer;
 import io.vertx.core.http.HttpServerOptions;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.parsetools.JsonEventType;
+import io.vertx.core.parsetools.JsonParser;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.BodyHandler;
 import jakarta.enterprise.context.ApplicationScoped;
 
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 @ApplicationScoped
@@ -40,8 +60,25 @@ public class HttpVerticle extends AbstractVerticle {
 
     private EventBus eb;
     private HttpServer httpServer;
+    private final DeliveryOptions cacheDeliveryOptions = new DeliveryOptions();
+    private DeliveryOptions kinesisDeliveryOptions;
+    // A purge takes as long as Redis needs to scan the key space
+    private final DeliveryOptions purgeDeliveryOptions = new DeliveryOptions().setSendTimeout(PURGE_TIMEOUT_MS);
+    // Messages logged per failed request
+    private LogSampler failureSampler;
+    private Timer cacheTimer;
+    private Timer kinesisTimer;
+    private Tracer tracer;
     private static final Logger LOGGER = Logger.getLogger(HttpVerticle.class.getName());
 
+    // Time a tracking event may wait for the Kinesis verticle on top of its block timeout
+    private static final long KINESIS_REPLY_MARGIN_MS = 500;
+    private static final int DEFAULT_FILL_MAX_PENDING = 4000;
+    private static final String DEFAULT_FILL_FILE = "data.json";
+    private static final long DEFAULT_FILL_PROGRESS_INTERVAL_MS = 5000;
+    private static final long PURGE_TIMEOUT_MS = 3_600_000;
+    private static final long DEFAULT_LOG_SAMPLE_INTERVAL_MS = 1000;
+
     @Override
     public void start() {
         LOGGER.info("Starting " + this.getClass().getName());
@@ -49,6 +86,12 @@ public class HttpVerticle extends AbstractVerticle {
         if (eb == null) {
             LOGGER.info("EventBus is null");
         }
+        this.failureSampler = new LogSampler(config().getLong(Constants.LOG_SAMPLE_INTERVAL_MS, DEFAULT_LOG_SAMPLE_INTERVAL_MS));
+        this.cacheTimer = TrackingMetrics.stage("cache");
+        this.kinesisTimer = TrackingMetrics.stage("kinesis");
+        this.tracer = Tracer.get(vertx.getDelegate(), config());
+        this.kinesisDeliveryOptions = new DeliveryOptions()
+                .setSendTimeout(config().getLong(Constants.KINESIS_OVERFLOW_BLOCK_TIMEOUT_MS, 1000L) + KINESIS_REPLY_MARGIN_MS);
         this.initHttpServer();
     }
 
@@ -66,7 +109,9 @@ public class HttpVerticle extends AbstractVerticle {
         router.get("/event/:eventID").handler(this::handleTrackingEvent);
         router.get("/cache/fill").handler(this::fillCacheWithData);
         router.get("/cache/purge").handler(this::purgeCache);
+        router.get("/cache/stats").handler(this::cacheStats);
         router.get("/health/check").handler(this::checkHealth);
+        router.get("/metrics").handler(this::metrics);
 
         HttpServerOptions httpServerOptions = new HttpServerOptions();
         httpServerOptions.setCompressionSupported(true);
@@ -82,77 +127,213 @@ public class HttpVerticle extends AbstractVerticle {
         response.end();
     }
 
+    private void metrics(final RoutingContext routingContext) {
+        String metrics = TrackingMetrics.scrape();
+        if (metrics == null) {
+            routingContext.fail(404);
+            return;
+        }
+        routingContext.response()
+                .putHeader("content-type", "text/plain; version=0.0.4; charset=utf-8")
+                .end(metrics);
+    }
+
+    /**
+     * Purges Redis and then the near caches, which would otherwise be refilled from keys not yet deleted.
+     */
     private void purgeCache(final RoutingContext routingContext) {
-        eb.send(Constants.REDIS_PURGE_EVENTBUS_ADDRESS, "");
-        eb.send(Constants.CACHE_PURGE_EVENTBUS_ADDRESS, "");
+        long start = System.nanoTime();
+        eb
+                .<Long>request(Constants.REDIS_PURGE_EVENTBUS_ADDRESS, "", purgeDeliveryOptions)
+                .onComplete(ar -> eb.send(Constants.CACHE_PURGE_EVENTBUS_ADDRESS, ""))
+                .onSuccess(res -> sendResponse(routingContext, 200, new JsonObject()
+                        .put("deleted", res.body())
+                        .put("durationMs", (System.nanoTime() - start) / 1_000_000)
+                        .encode()))
+                .onFailure(err -> {
+                    LOGGER.info("Purging caches failed: " + err.getMessage());
+                    routingContext.fail(err);
+                });
+    }
 
-        HttpServerResponse response = routingContext.request().response();
-        response.setStatusCode(200);
-        response.putHeader("content-type", "application/json");
-        response.end();
+    private void cacheStats(final RoutingContext routingContext) {
+        Future<JsonObject> cacheStats = eb.<JsonObject>request(Constants.CACHE_STATS_EVENTBUS_ADDRESS, "").map(Message::body);
+        Future<JsonObject> redisStats = eb.<JsonObject>request(Constants.REDIS_STATS_EVENTBUS_ADDRESS, "").map(Message::body);
+        Future.all(cacheStats, redisStats)
+                .onSuccess(res -> sendResponse(routingContext, 200, cacheStats.result().put("redis", redisStats.result()).encode()))
+                .onFailure(routingContext::fail);
     }
 
     private void fillCacheWithData(final RoutingContext routingContext) {
-        LOGGER.info("Filling caches with data ... ");
-        LOGGER.fine("Reading JSON-data");
+        String file = config().getString(Constants.FILL_FILE, DEFAULT_FILL_FILE);
+        LOGGER.info("Filling caches with data from " + file + " ... ");
 
         FileSystem fs = vertx.fileSystem().getDelegate();
-        fs.readFile("data.json")
-                .onSuccess(buf -> {
-                    JsonArray jsonArray = buf.toJsonArray();
-                    for (Object aJsonArray : jsonArray) {
-                        JsonObject obj = (JsonObject) aJsonArray;
-                        LOGGER.info("Sending message to cache-verticles: " + obj);
-                        eb.send(Constants.CACHE_STORE_EVENTBUS_ADDRESS, obj);
-                        eb.send(Constants.REDIS_STORE_EVENTBUS_ADDRESS, obj);
-                    }
-                    routingContext.end();
+        fs.open(file, new OpenOptions().setRead(true).setCreate(false))
+                .compose(asyncFile -> asyncFile
+                        .size()
+                        .recover(err -> asyncFile.close().transform(ar -> Future.failedFuture(err)))
+                        .compose(size -> fill(asyncFile, size)))
+                .onSuccess(progress -> {
+                    LOGGER.info("Filled caches from " + file + ": " + progress);
+                    eb.send(Constants.CACHE_FILLED_EVENTBUS_ADDRESS, "");
+                    sendResponse(routingContext, 200, progress.toJson().encode());
                 })
                 .onFailure(err -> {
-                    LOGGER.info(err.getMessage());
+                    LOGGER.info("Filling caches from " + file + " failed: " + err.getMessage());
                     routingContext.fail(err);
                 });
     }
 
+    /**
+     * Streams the programs of the file into the caches. The file holds either a JSON array of programs or
+     * one program per line (NDJSON); it is parsed as it is read and reading pauses while the fill stream
+     * is full, so the file may be larger than the heap. Progress is logged every progress interval.
+     */
+    private Future<FillProgress> fill(AsyncFile asyncFile, long size) {
+        CacheFillStream fillStream = new CacheFillStream(eb, config().getInteger(Constants.FILL_MAX_PENDING, DEFAULT_FILL_MAX_PENDING));
+        FillProgress progress = new FillProgress(fillStream, size);
+        Promise<FillProgress> promise = Promise.promise();
+
+        long progressInterval = config().getLong(Constants.FILL_PROGRESS_INTERVAL_MS, DEFAULT_FILL_PROGRESS_INTERVAL_MS);
+        long progressTimer = progressInterval > 0
+                ? vertx.getDelegate().setPeriodic(progressInterval, id -> LOGGER.info("Filling caches: " + progress))
+                : -1;
+
+        JsonParser parser = JsonParser.newParser().objectValueMode();
+        parser.handler(event -> {
+            if (event.type() != JsonEventType.VALUE) {
+                // Start and end of the enclosing array
+                return;
+            }
+            Program program;
+            try {
+                program = event.mapTo(Program.class);
+            } catch (IllegalArgumentException | DecodeException exc) {
+                progress.skipped++;
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.fine("Skipping invalid program " + event.value() + ": " + exc.getMessage());
+                }
+                return;
+            }
+            fillStream.write(program);
+            if (fillStream.writeQueueFull()) {
+                asyncFile.pause();
+                fillStream.drainHandler(v -> asyncFile.resume());
+            }
+        });
+        Handler<Throwable> failureHandler = err -> {
+            asyncFile.pause();
+            asyncFile.close();
+            // Stores already started still complete, but the fill is reported as failed
+            fillStream.end(ar -> promise.tryFail(err));
+        };
+        parser.exceptionHandler(failureHandler);
+        parser.endHandler(v -> fillStream.end(ar -> promise.tryComplete(progress)));
+
+        asyncFile.handler(buffer -> {
+            progress.bytesRead += buffer.length();
+            parser.handle(buffer);
+        });
+        asyncFile.exceptionHandler(failureHandler);
+        asyncFile.endHandler(v -> {
+            asyncFile.close();
+            parser.end();
+        });
+
+        return promise.future().onComplete(ar -> vertx.getDelegate().cancelTimer(progressTimer));
+    }
+
     private void handleTrackingEvent(final RoutingContext routingContext) {
 
         String userAgent = routingContext.request().getHeader("User-Agent");
         String eventID = routingContext.request().getParam("eventID");
 
-        UUID uuid = UUID.randomUUID();
-        TrackingMessage trackingMessage = new TrackingMessage();
-        trackingMessage.setMessageId(uuid.toString());
-        trackingMessage.setProgramId(eventID);
-
-        JsonObject message = JsonObject.mapFrom(trackingMessage);
-
         if (null == eventID) {
             routingContext.fail(400);
             return;
         }
+
+        Span span = tracer.startServer("GET /event/:eventID", routingContext.request().getHeader(Tracer.TRACEPARENT));
+        if (span.isRecording()) {
+            span.setAttribute("program.id", eventID);
+            routingContext.addEndHandler(ar -> span
+                    .setAttribute("http.status_code", routingContext.response().getStatusCode())
+                    .end(ar.cause()));
+        }
+
+        long cacheStart = System.nanoTime();
+        Span cacheSpan = tracer.startClient("cache", span);
         eb
-                .<JsonObject>request(Constants.CACHE_EVENTBUS_ADDRESS, message)
+                .<Program>request(Constants.CACHE_EVENTBUS_ADDRESS, eventID, cacheSpan.propagate(cacheDeliveryOptions))
+                .onComplete(ar -> {
+                    cacheTimer.record(System.nanoTime() - cacheStart, TimeUnit.NANOSECONDS);
+                    cacheSpan.end(ar.cause());
+                })
                 .onSuccess(res -> {
-                    JsonObject result = res.body();
-                    if (result.isEmpty()) {
+                    // The cache verticle replies with an empty body if the program is unknown
+                    Program program = res.body();
+                    if (program == null) {
                         sendResponse(routingContext, 404, Json.encode("ProgramId not found"));
                         return;
                     }
 
-                    TrackingMessage tmpMsg = Json.decodeValue(result.encode(), TrackingMessage.class);
-                    tmpMsg.setUserAgent(userAgent);
-
-                    String enrichedData = Json.encode(tmpMsg);
+                    TrackingMessage result = new TrackingMessage(UUID.randomUUID().toString(), userAgent, program);
 
-                    eb.send(Constants.KINESIS_EVENTBUS_ADDRESS, enrichedData);
-                    sendResponse(routingContext, 200, enrichedData);
+                    // The Kinesis verticle replies once it has taken the event, or fails if it is saturated
+                    long kinesisStart = System.nanoTime();
+                    Span kinesisSpan = tracer.startClient("kinesis", span);
+                    eb
+                            .request(Constants.KINESIS_EVENTBUS_ADDRESS, result, kinesisSpan.propagate(kinesisDeliveryOptions))
+                            .onComplete(ar -> {
+                                kinesisTimer.record(System.nanoTime() - kinesisStart, TimeUnit.NANOSECONDS);
+                                kinesisSpan.end(ar.cause());
+                            })
+                            .onSuccess(ack -> sendResponse(routingContext, 200, Json.encode(result)))
+                            .onFailure(err -> {
+                                if (isSaturated(err)) {
+                                    routingContext.response().putHeader("Retry-After", "1");
+                                    sendResponse(routingContext, 503, Json.encode("Tracking is temporarily unavailable"));
+                                } else {
+                                    logFailure(err);
+                                    routingContext.fail(err);
+                                }
+                            });
                 })
                 .onFailure(err -> {
-                    LOGGER.severe(err.getMessage());
-                    routingContext.fail(err);
+                    if (isRedisUnavailable(err)) {
+                        routingContext.response().putHeader("Retry-After", "1");
+                        sendResponse(routingContext, 503, Json.encode("Program data is temporarily unavailable"));
+                    } else {
+                        logFailure(err);
+                        routingContext.fail(err);
+                    }
                 });
     }
 
+    private void logFailure(Throwable err) {
+        long suppressed = failureSampler.sample();
+        if (suppressed >= 0) {
+            LOGGER.severe(err.getMessage() + LogSampler.suppressed(suppressed));
+        }
+    }
+
+    private static boolean isRedisUnavailable(Throwable err) {
+        return err instanceof ReplyException
+                && ((ReplyException) err).failureType() == ReplyFailure.RECIPIENT_FAILURE
+                && ((ReplyException) err).failureCode() == CacheVerticle.REDIS_UNAVAILABLE;
+    }
+
+    private static boolean isSaturated(Throwable err) {
+        if (!(err instanceof ReplyException)) {
+            return false;
+        }
+        ReplyException replyException = (ReplyException) err;
+        return replyException.failureType() == ReplyFailure.TIMEOUT
+                || (replyException.failureType() == ReplyFailure.RECIPIENT_FAILURE
+                    && replyException.failureCode() == KinesisVerticle.SATURATED);
+    }
+
     private void sendResponse(final RoutingContext routingContext, int statusCode, final String message) {
         HttpServerResponse response = routingContext.request().response();
         response.setStatusCode(statusCode);
@@ -163,4 +344,38 @@ public class HttpVerticle extends AbstractVerticle {
         else
             response.end();
     }
+
+    private static final class FillProgress {
+        private final CacheFillStream fillStream;
+        private final long size;
+        private final long start = System.nanoTime();
+        private long bytesRead;
+        private long skipped;
+
+        private FillProgress(CacheFillStream fillStream, long size) {
+            this.fillStream = fillStream;
+            this.size = size;
+        }
+
+        private JsonObject toJson() {
+            long durationMs = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+            return new JsonObject()
+                    .put("programs", fillStream.written())
+                    .put("stored", fillStream.stored())
+                    .put("failed", fillStream.failed())
+                    .put("skipped", skipped)
+                    .put("bytesRead", bytesRead)
+                    .put("bytesTotal", size)
+                    .put("durationMs", durationMs)
+                    .put("programsPerSecond", fillStream.stored() * 1000 / durationMs);
+        }
+
+        @Override
+        public String toString() {
+            JsonObject json = toJson();
+            return String.format("%d programs stored, %d failed, %d skipped, %d%% of %d bytes read, %d programs/s",
+                    fillStream.stored(), fillStream.failed(), skipped,
+                    size > 0 ? bytesRead * 100 / size : 100, size, json.getLong("programsPerSecond"));
+        }
+    }
 }
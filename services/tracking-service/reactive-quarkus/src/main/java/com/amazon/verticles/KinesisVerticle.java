@@ -16,46 +16,152 @@
 
 package com.amazon.verticles;
 
+import com.amazon.codec.TrackingEventEncoder;
 import com.amazon.exceptions.KinesisException;
-import com.amazon.proto.TrackingEventProtos;
-
+import com.amazon.kinesis.HttpClientMetrics;
+import com.amazon.kinesis.OverflowPolicy;
+import com.amazon.kinesis.RecordAggregator;
+import com.amazon.kinesis.SpillLog;
+import com.amazon.tracing.Span;
+import com.amazon.tracing.Tracer;
+import com.amazon.util.LogSampler;
+import com.amazon.util.TrackingMetrics;
 import com.amazon.vo.TrackingMessage;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.eventbus.EventBus;
-import io.vertx.core.json.Json;
+import io.vertx.core.eventbus.Message;
 import jakarta.enterprise.context.ApplicationScoped;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.core.SdkBytes;
 import software.amazon.awssdk.core.client.config.ClientAsyncConfiguration;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
 import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.kinesis.KinesisAsyncClient;
-import software.amazon.awssdk.services.kinesis.model.PutRecordRequest;
-import software.amazon.awssdk.services.kinesis.model.PutRecordResponse;
-
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequest;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsRequestEntry;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResponse;
+import software.amazon.awssdk.services.kinesis.model.PutRecordsResultEntry;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import static com.amazon.util.Constants.KINESIS_EVENTBUS_ADDRESS;
-import static com.amazon.util.Constants.STREAM_NAME;
+import static com.amazon.util.Constants.*;
 
 @ApplicationScoped
 public class KinesisVerticle extends AbstractVerticle {
 
     private static final Logger LOGGER = Logger.getLogger(KinesisVerticle.class.getName());
+
+    // Limits of a single PutRecords call
+    private static final int MAX_BATCH_RECORDS = 500;
+    private static final long MAX_BATCH_BYTES = 5L * 1024 * 1024;
+    // Limit of a single record, minus the longest possible partition key
+    private static final int MAX_AGGREGATED_RECORD_BYTES = 1024 * 1024 - 256;
+    private static final int DEFAULT_AGGREGATION_MAX_BYTES = 50 * 1024;
+    private static final long DEFAULT_LINGER_MS = 50;
+    private static final int DEFAULT_MAX_ATTEMPTS = 5;
+    private static final long DEFAULT_RETRY_MIN_BACKOFF_MS = 100;
+    private static final long DEFAULT_RETRY_MAX_BACKOFF_MS = 10000;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 10000;
+    private static final long DEFAULT_BLOCK_TIMEOUT_MS = 1000;
+    private static final String DEFAULT_SPILL_DIR = "/tmp/tracking-spill";
+    private static final int DEFAULT_SPILL_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_SPILL_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final long DEFAULT_SPILL_DRAIN_INTERVAL_MS = 1000;
+    private static final long DEFAULT_SPILL_MAX_BACKOFF_MS = 60000;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT_MS = 10000;
+    private static final long DEFAULT_LOG_SAMPLE_INTERVAL_MS = 1000;
+
+    // Failure code of the reply to a tracking event that was not accepted
+    public static final int SATURATED = 503;
+
     private KinesisAsyncClient kinesisAsyncClient;
     private String eventStream = "reactive-system-event-stream";
 
     private EventBus eb;
 
+    // Records waiting for the next PutRecords call; only accessed on the context of this verticle
+    private final Deque<BufferedRecord> buffer = new ArrayDeque<>();
+    private long bufferedBytes;
+    private long lingerTimerId = -1;
+
+    private int maxBatchRecords;
+    private long maxBatchBytes;
+    private long lingerMs;
+    private int maxAttempts;
+    private long retryMinBackoffMs;
+    private long retryMaxBackoffMs;
+
+    // Records of failed PutRecords calls waiting for their backoff, by timer id
+    private final Map<Long, List<BufferedRecord>> backingOff = new HashMap<>();
+
+    // Null unless aggregation is enabled
+    private RecordAggregator aggregator;
+
+    // Tracking events accepted but not yet written to Kinesis, and the events waiting for room among them
+    private int inFlight;
+    private final Deque<WaitingMessage> waiting = new ArrayDeque<>();
+    private int maxInFlight;
+    private OverflowPolicy overflowPolicy;
+    private long blockTimeoutNanos;
+    // Fires at the deadline of the oldest waiting event, in case no room is freed before
+    private long waitingTimerId = -1;
+
+    // Null unless spilling is enabled; records that can't be written are kept here until the drainer replays them
+    private SpillLog spillLog;
+    private long drainIntervalMs;
+    private long drainMaxBackoffMs;
+    private long drainBackoffMs;
+    private long drainTimerId = -1;
+    // Batch of the last replay; its records stay in the spill log until they are written
+    private List<BufferedRecord> replayBatch;
+
+    // Messages logged per rejected event, and per failed batch or dropped record
+    private LogSampler traceSampler;
+    private LogSampler failureSampler;
+
+    // Batches of the PutRecords calls waiting for a response
+    private final Set<List<BufferedRecord>> outstandingBatches = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Timer putRecordsTimer;
+
+    // Set while the verticle is undeployed; completed once the last outstanding PutRecords call returns
+    private boolean stopping;
+    private Promise<Void> batchesDone;
+    private long shutdownTimeoutMs;
+    private Tracer tracer;
+
     @Override
     public void start() {
 
         LOGGER.info("Starting " + this.getClass().getName());
 
         eb = vertx.eventBus().getDelegate();
-        kinesisAsyncClient = createClient();
+        registerMetrics(TrackingMetrics.registry());
+        tracer = Tracer.get(vertx.getDelegate(), config());
+        kinesisAsyncClient = createClient(new HttpClientMetrics(TrackingMetrics.registry()));
 
         if (System.getenv(STREAM_NAME) == null) {
             LOGGER.info("EVENT_STREAM is empty, using default");
@@ -63,83 +169,582 @@ public class KinesisVerticle extends AbstractVerticle {
 
         eventStream = System.getenv(STREAM_NAME) == null ? "reactive-system-event-stream" : System.getenv(STREAM_NAME);
 
-        eb
-                .<String>consumer(KINESIS_EVENTBUS_ADDRESS)
-                .handler(message -> {
-                    try {
-                        TrackingMessage trackingMessage = Json.decodeValue(message.body(), TrackingMessage.class);
-                        String partitionKey = trackingMessage.getMessageId();
+        maxBatchRecords = Math.min(config().getInteger(KINESIS_BATCH_MAX_RECORDS, MAX_BATCH_RECORDS), MAX_BATCH_RECORDS);
+        maxBatchBytes = Math.min(config().getLong(KINESIS_BATCH_MAX_BYTES, MAX_BATCH_BYTES), MAX_BATCH_BYTES);
+        lingerMs = Math.max(config().getLong(KINESIS_BATCH_LINGER_MS, DEFAULT_LINGER_MS), 1);
+        maxAttempts = config().getInteger(KINESIS_MAX_ATTEMPTS, DEFAULT_MAX_ATTEMPTS);
+        retryMinBackoffMs = Math.max(config().getLong(KINESIS_RETRY_MIN_BACKOFF_MS, DEFAULT_RETRY_MIN_BACKOFF_MS), 1);
+        retryMaxBackoffMs = Math.max(config().getLong(KINESIS_RETRY_MAX_BACKOFF_MS, DEFAULT_RETRY_MAX_BACKOFF_MS), retryMinBackoffMs);
+        long sampleIntervalMs = config().getLong(LOG_SAMPLE_INTERVAL_MS, DEFAULT_LOG_SAMPLE_INTERVAL_MS);
+        traceSampler = new LogSampler(sampleIntervalMs);
+        failureSampler = new LogSampler(sampleIntervalMs);
+
+        if (config().getBoolean(KINESIS_AGGREGATION_ENABLED, false)) {
+            aggregator = new RecordAggregator(
+                    Math.max(config().getInteger(KINESIS_AGGREGATION_HASH_RANGES, 1), 1),
+                    Math.min(config().getInteger(KINESIS_AGGREGATION_MAX_BYTES, DEFAULT_AGGREGATION_MAX_BYTES), MAX_AGGREGATED_RECORD_BYTES));
+        }
 
-                        byte [] byteMessage = createMessage(trackingMessage);
+        maxInFlight = Math.max(config().getInteger(KINESIS_MAX_IN_FLIGHT, DEFAULT_MAX_IN_FLIGHT), 1);
+        overflowPolicy = OverflowPolicy.parse(config().getString(KINESIS_OVERFLOW_POLICY, OverflowPolicy.BLOCK.name()));
+        blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(config().getLong(KINESIS_OVERFLOW_BLOCK_TIMEOUT_MS, DEFAULT_BLOCK_TIMEOUT_MS));
+        shutdownTimeoutMs = config().getLong(KINESIS_SHUTDOWN_TIMEOUT_MS, DEFAULT_SHUTDOWN_TIMEOUT_MS);
 
-                        sendMessageToKinesis(byteMessage, partitionKey);
+        if (config().getBoolean(KINESIS_SPILL_ENABLED, false) || overflowPolicy == OverflowPolicy.SPILL) {
+            openSpillLog();
+        }
 
-                        // Now send back reply
+        eb
+                .<TrackingMessage>consumer(KINESIS_EVENTBUS_ADDRESS)
+                .handler(message -> {
+                    Span span = tracer.startConsumer("kinesis", message);
+                    if (inFlight < maxInFlight && waiting.isEmpty()) {
+                        accept(message, span);
+                    } else if (overflowPolicy == OverflowPolicy.BLOCK && waiting.size() < maxInFlight) {
+                        // The reply, and with it the HTTP response, is delayed until there is room
+                        waiting.addLast(new WaitingMessage(message, span, System.nanoTime()));
+                        scheduleWaitingExpiry();
+                    } else if (overflowPolicy == OverflowPolicy.SPILL && spill(message.body())) {
                         message.reply("OK");
-                    }
-                    catch (KinesisException exc) {
-                        LOGGER.severe(exc.getMessage());
+                        span.setAttribute("kinesis.result", "spilled").end();
+                    } else {
+                        reject(message, span);
                     }
                 });
     }
 
+    private void registerMetrics(MeterRegistry registry) {
+        putRecordsTimer = TrackingMetrics.stage("kinesis.putrecords");
+        Gauge.builder("tracking.kinesis.in.flight", this, verticle -> verticle.inFlight)
+                .description("Tracking events accepted but not yet written to Kinesis")
+                .register(registry);
+        Gauge.builder("tracking.kinesis.waiting", this, verticle -> verticle.waiting.size())
+                .description("Tracking events waiting for room with the block policy")
+                .register(registry);
+        Gauge.builder("tracking.kinesis.buffered.records", this, verticle -> verticle.buffer.size())
+                .register(registry);
+        Gauge.builder("tracking.kinesis.buffered.bytes", this, verticle -> verticle.bufferedBytes)
+                .register(registry);
+        Gauge.builder("tracking.kinesis.putrecords.in.flight", this, verticle -> verticle.outstandingBatches.size())
+                .description("PutRecords calls waiting for a response")
+                .register(registry);
+        Gauge.builder("tracking.kinesis.spill.pending", this, verticle -> verticle.spillLog == null ? 0 : verticle.spillLog.pendingRecords())
+                .description("Records in the spill log waiting to be replayed")
+                .register(registry);
+    }
+
+    /**
+     * Keeps the accepted tracking events before the spill log and the client are closed: with a spill log,
+     * buffered records are written to it right away, otherwise they are sent. Outstanding PutRecords calls
+     * are awaited up to the shutdown timeout; records they fail are spilled instead of retried, and records
+     * of calls still unanswered after the timeout are spilled as well, so they may reach the stream twice.
+     */
     @Override
-    public void stop() {
-        if (kinesisAsyncClient != null) {
-            kinesisAsyncClient.close();
+    public void stop(Promise<Void> stopPromise) {
+        stopping = true;
+        if (drainTimerId >= 0) {
+            vertx.getDelegate().cancelTimer(drainTimerId);
+            drainTimerId = -1;
+        }
+        if (waitingTimerId >= 0) {
+            vertx.getDelegate().cancelTimer(waitingTimerId);
+            waitingTimerId = -1;
+        }
+        while (!waiting.isEmpty()) {
+            WaitingMessage next = waiting.pollFirst();
+            reject(next.message, next.span);
+        }
+        for (Map.Entry<Long, List<BufferedRecord>> retry : backingOff.entrySet()) {
+            vertx.getDelegate().cancelTimer(retry.getKey());
+            putBack(retry.getValue());
+        }
+        backingOff.clear();
+        if (spillLog != null) {
+            spillBuffered();
+        } else {
+            flushAll();
+        }
+
+        awaitOutstandingBatches().onComplete(none -> {
+            if (lingerTimerId >= 0) {
+                vertx.getDelegate().cancelTimer(lingerTimerId);
+                lingerTimerId = -1;
+            }
+            giveUpOutstandingBatches();
+            spillBuffered();
+            if (spillLog != null) {
+                spillLog.close();
+                spillLog = null;
+            }
+            if (kinesisAsyncClient != null) {
+                kinesisAsyncClient.close();
+                kinesisAsyncClient = null;
+            }
+            stopPromise.complete();
+        });
+    }
+
+    private Future<Void> awaitOutstandingBatches() {
+        if (outstandingBatches.isEmpty()) {
+            return Future.succeededFuture();
+        }
+        batchesDone = Promise.promise();
+        long timerId = vertx.getDelegate().setTimer(Math.max(shutdownTimeoutMs, 1), id -> batchesDone.tryComplete());
+        return batchesDone.future().onComplete(none -> vertx.getDelegate().cancelTimer(timerId));
+    }
+
+    /**
+     * Spills the records of the PutRecords calls that didn't return before the shutdown timeout; their
+     * responses are ignored.
+     */
+    private void giveUpOutstandingBatches() {
+        if (replayBatch != null) {
+            outstandingBatches.remove(replayBatch);
+        }
+        if (outstandingBatches.isEmpty()) {
+            return;
         }
+        int records = 0;
+        int lost = 0;
+        for (List<BufferedRecord> batch : outstandingBatches) {
+            for (BufferedRecord record : batch) {
+                records += record.userRecords;
+                if (!spill(record.entry)) {
+                    lost += record.userRecords;
+                }
+            }
+        }
+        LOGGER.warning(outstandingBatches.size() + " PutRecords calls with " + records + " tracking events did not return within "
+                + shutdownTimeoutMs + " ms, " + (records - lost) + " of the events were spilled");
+        outstandingBatches.clear();
     }
 
-    private void sendMessageToKinesis(byte [] byteMessage, String partitionKey) throws KinesisException {
+    /**
+     * Writes the records waiting for a PutRecords call to the spill log, or drops them if there is none.
+     */
+    private void spillBuffered() {
+        if (aggregator != null) {
+            for (RecordAggregator.AggregatedRecord aggregated : aggregator.drain()) {
+                buffer.addLast(new BufferedRecord(aggregated));
+            }
+        }
+        int lost = 0;
+        while (!buffer.isEmpty()) {
+            BufferedRecord record = buffer.pollFirst();
+            if (!spill(record.entry)) {
+                lost += record.userRecords;
+            }
+        }
+        bufferedBytes = 0;
+        if (lost > 0) {
+            LOGGER.severe("Dropping " + lost + " tracking events that could not be written before shutdown");
+        }
+    }
+
+    private void openSpillLog() {
+        String directory = config().getString(KINESIS_SPILL_DIR, DEFAULT_SPILL_DIR);
+        try {
+            spillLog = SpillLog.open(Paths.get(directory),
+                    config().getInteger(KINESIS_SPILL_SEGMENT_BYTES, DEFAULT_SPILL_SEGMENT_BYTES),
+                    config().getLong(KINESIS_SPILL_MAX_BYTES, DEFAULT_SPILL_MAX_BYTES));
+        } catch (IOException exc) {
+            throw new IllegalStateException("Spill log in " + directory + " could not be opened", exc);
+        }
+
+        drainIntervalMs = Math.max(config().getLong(KINESIS_SPILL_DRAIN_INTERVAL_MS, DEFAULT_SPILL_DRAIN_INTERVAL_MS), 1);
+        drainMaxBackoffMs = Math.max(config().getLong(KINESIS_SPILL_MAX_BACKOFF_MS, DEFAULT_SPILL_MAX_BACKOFF_MS), drainIntervalMs);
+        scheduleDrain(drainIntervalMs);
+    }
+
+    private void accept(Message<TrackingMessage> message, Span span) {
+        TrackingMessage trackingMessage = message.body();
+        String partitionKey = trackingMessage.getMessageId();
+
+        byte [] byteMessage = TrackingEventEncoder.encode(trackingMessage);
+
+        inFlight++;
+        if (aggregator == null) {
+            enqueue(new BufferedRecord(partitionKey, null, byteMessage, 1));
+        } else {
+            aggregate(partitionKey, byteMessage);
+        }
+
+        // Now send back reply
+        message.reply("OK");
+        span.setAttribute("kinesis.result", "accepted").end();
+    }
+
+    private void reject(Message<TrackingMessage> message, Span span) {
+        long suppressed;
+        if (LOGGER.isLoggable(Level.FINE) && (suppressed = traceSampler.sample()) >= 0) {
+            LOGGER.fine("Rejecting tracking event, " + inFlight + " events in flight" + LogSampler.suppressed(suppressed));
+        }
+        message.fail(SATURATED, "Kinesis pipeline is saturated");
+        span.setAttribute("kinesis.result", "rejected").end();
+    }
+
+    /**
+     * Gives the room of written or dropped tracking events to the events waiting for it.
+     */
+    private void release(int records) {
+        inFlight -= records;
+
+        long now = System.nanoTime();
+        while (inFlight < maxInFlight && !waiting.isEmpty()) {
+            WaitingMessage next = waiting.pollFirst();
+            if (now - next.since > blockTimeoutNanos) {
+                // The sender has given up on it already
+                reject(next.message, next.span);
+            } else {
+                accept(next.message, next.span);
+            }
+        }
+    }
+
+    /**
+     * Rejects the waiting events whose sender has given up on them even while no room is freed, for
+     * instance because PutRecords calls stall. Events wait in arrival order, so the oldest one's deadline
+     * comes first.
+     */
+    private void scheduleWaitingExpiry() {
+        if (waitingTimerId >= 0 || waiting.isEmpty()) {
+            return;
+        }
+        long remainingNanos = waiting.peekFirst().since + blockTimeoutNanos - System.nanoTime();
+        waitingTimerId = vertx.getDelegate().setTimer(Math.max(TimeUnit.NANOSECONDS.toMillis(remainingNanos) + 1, 1), id -> {
+            waitingTimerId = -1;
+            long now = System.nanoTime();
+            while (!waiting.isEmpty() && now - waiting.peekFirst().since > blockTimeoutNanos) {
+                WaitingMessage next = waiting.pollFirst();
+                reject(next.message, next.span);
+            }
+            scheduleWaitingExpiry();
+        });
+    }
+
+    private void enqueue(BufferedRecord record) {
+        buffer.addLast(record);
+        bufferedBytes += record.size;
+
+        if (buffer.size() >= maxBatchRecords || bufferedBytes >= maxBatchBytes) {
+            flushFullBatches();
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private void aggregate(String partitionKey, byte[] data) {
+        RecordAggregator.AggregatedRecord completed = aggregator.add(partitionKey, data);
+        if (completed != null) {
+            enqueue(new BufferedRecord(completed));
+        } else {
+            scheduleFlush();
+        }
+    }
+
+    private void scheduleFlush() {
+        boolean pending = !buffer.isEmpty() || (aggregator != null && !aggregator.isEmpty());
+        if (lingerTimerId < 0 && pending) {
+            lingerTimerId = vertx.getDelegate().setTimer(lingerMs, id -> {
+                lingerTimerId = -1;
+                flushAll();
+            });
+        }
+    }
+
+    private void flushFullBatches() {
+        while (buffer.size() >= maxBatchRecords || bufferedBytes >= maxBatchBytes) {
+            sendBatch(takeBatch());
+        }
+        scheduleFlush();
+    }
+
+    private void flushAll() {
+        if (lingerTimerId >= 0) {
+            vertx.getDelegate().cancelTimer(lingerTimerId);
+            lingerTimerId = -1;
+        }
+        if (aggregator != null) {
+            for (RecordAggregator.AggregatedRecord aggregated : aggregator.drain()) {
+                BufferedRecord record = new BufferedRecord(aggregated);
+                buffer.addLast(record);
+                bufferedBytes += record.size;
+            }
+        }
+        while (!buffer.isEmpty()) {
+            sendBatch(takeBatch());
+        }
+    }
+
+    private List<BufferedRecord> takeBatch() {
+        List<BufferedRecord> batch = new ArrayList<>(Math.min(buffer.size(), maxBatchRecords));
+        long batchBytes = 0;
+        while (!buffer.isEmpty() && batch.size() < maxBatchRecords) {
+            BufferedRecord next = buffer.peekFirst();
+            if (!batch.isEmpty() && batchBytes + next.size > maxBatchBytes) {
+                break;
+            }
+            buffer.pollFirst();
+            bufferedBytes -= next.size;
+            batchBytes += next.size;
+            batch.add(next);
+        }
+        return batch;
+    }
+
+    private void sendBatch(List<BufferedRecord> batch) {
+        sendRecordsToKinesis(batch)
+                .onSuccess(failed -> {
+                    requeue(failed);
+                    release(userRecords(batch) - userRecords(failed));
+                })
+                .onFailure(err -> {
+                    long suppressed = failureSampler.sample();
+                    if (suppressed >= 0) {
+                        LOGGER.severe("PutRecords failed for " + batch.size() + " records: " + err.getMessage() + LogSampler.suppressed(suppressed));
+                    }
+                    retryLater(batch);
+                });
+    }
+
+    /**
+     * Sends the records of a failed PutRecords call again after an exponential backoff with jitter. The
+     * failure says nothing about the records themselves, so it doesn't count against their attempts; while
+     * they wait they still take up room among the tracking events in flight.
+     */
+    private void retryLater(List<BufferedRecord> batch) {
+        if (stopping) {
+            requeue(batch);
+            return;
+        }
+
+        int failedCalls = 0;
+        for (BufferedRecord record : batch) {
+            failedCalls = Math.max(failedCalls, ++record.failedCalls);
+        }
+        long backoffMs = Math.min(retryMinBackoffMs << Math.min(failedCalls - 1, 30), retryMaxBackoffMs);
+        long delayMs = backoffMs / 2 + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+
+        long timerId = vertx.getDelegate().setTimer(Math.max(delayMs, 1), id -> {
+            putBack(backingOff.remove(id));
+            flushAll();
+        });
+        backingOff.put(timerId, batch);
+    }
+
+    /**
+     * Writes the records with one PutRecords call.
+     *
+     * @return the records Kinesis rejected, completed on the context of this verticle
+     */
+    private Future<List<BufferedRecord>> sendRecordsToKinesis(List<BufferedRecord> batch) {
         if (null == kinesisAsyncClient) {
-            throw new KinesisException("AmazonKinesisAsync is not initialized");
+            return Future.failedFuture(new KinesisException("AmazonKinesisAsync is not initialized"));
+        }
+
+        List<PutRecordsRequestEntry> entries = new ArrayList<>(batch.size());
+        for (BufferedRecord record : batch) {
+            entries.add(record.entry);
         }
 
-        SdkBytes payload = SdkBytes.fromByteArray(byteMessage);
-        PutRecordRequest putRecordRequest = PutRecordRequest.builder()
-                .partitionKey(partitionKey)
+        PutRecordsRequest putRecordsRequest = PutRecordsRequest.builder()
                 .streamName(eventStream)
-                .data(payload)
+                .records(entries)
                 .build();
 
-        LOGGER.info("Writing to streamName " + eventStream + " using partitionkey " + partitionKey);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Writing " + entries.size() + " records to streamName " + eventStream);
+        }
 
+        Promise<List<BufferedRecord>> promise = Promise.promise();
         try {
-            CompletableFuture<PutRecordResponse> future = kinesisAsyncClient.putRecord(putRecordRequest);
-
-            future.whenComplete((result, e) -> vertx.getDelegate().runOnContext(none -> {
+            long start = System.nanoTime();
+            CompletableFuture<PutRecordsResponse> future = kinesisAsyncClient.putRecords(putRecordsRequest);
+            outstandingBatches.add(batch);
+
+            future.whenComplete((result, e) -> context.runOnContext(none -> {
+                if (!outstandingBatches.remove(batch)) {
+                    // Given up on at shutdown
+                    return;
+                }
+                putRecordsTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
                 if (e != null) {
-                    LOGGER.severe("Something happened ... 1");
-                    LOGGER.severe(e.getMessage());
+                    promise.fail(e);
+                } else if (result.failedRecordCount() != null && result.failedRecordCount() > 0) {
+                    // Result entries are in the same order as the request entries
+                    List<PutRecordsResultEntry> resultEntries = result.records();
+                    List<BufferedRecord> failed = new ArrayList<>(result.failedRecordCount());
+                    String firstError = null;
+                    for (int i = 0; i < resultEntries.size(); i++) {
+                        PutRecordsResultEntry resultEntry = resultEntries.get(i);
+                        if (resultEntry.errorCode() != null) {
+                            failed.add(batch.get(i));
+                            firstError = firstError == null ? resultEntry.errorCode() + ": " + resultEntry.errorMessage() : firstError;
+                        }
+                    }
+                    long suppressed = failureSampler.sample();
+                    if (suppressed >= 0) {
+                        LOGGER.warning(failed.size() + " of " + batch.size() + " records failed, first error " + firstError + LogSampler.suppressed(suppressed));
+                    }
+                    promise.complete(failed);
                 } else {
-                    String sequenceNumber = result.sequenceNumber();
-                    LOGGER.fine("Message sequence number: " + sequenceNumber);
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("Wrote " + batch.size() + " records");
+                    }
+                    promise.complete(List.of());
+                }
+                if (batchesDone != null && outstandingBatches.isEmpty()) {
+                    batchesDone.tryComplete();
                 }
             }));
         }
         catch (Exception exc) {
-            LOGGER.severe("Something happened ... 2");
-            LOGGER.severe(exc.getMessage());
+            promise.fail(exc);
+        }
+        return promise.future();
+    }
+
+    /**
+     * Puts records in front of the buffer again, keeping their order.
+     */
+    private void putBack(List<BufferedRecord> records) {
+        for (int i = records.size() - 1; i >= 0; i--) {
+            BufferedRecord record = records.get(i);
+            buffer.addFirst(record);
+            bufferedBytes += record.size;
+        }
+    }
+
+    private void requeue(List<BufferedRecord> records) {
+        int givenUp = 0;
+        // Put them in front of the buffer again, keeping their order
+        for (int i = records.size() - 1; i >= 0; i--) {
+            BufferedRecord record = records.get(i);
+            // While stopping there is no time left to retry records that can be spilled
+            if (++record.attempts >= maxAttempts || (stopping && spillLog != null)) {
+                givenUp += record.userRecords;
+                long suppressed;
+                if (!spill(record.entry) && (suppressed = failureSampler.sample()) >= 0) {
+                    LOGGER.severe("Dropping record with partition key " + record.entry.partitionKey() + " after " + record.attempts + " attempts" + LogSampler.suppressed(suppressed));
+                }
+                continue;
+            }
+            buffer.addFirst(record);
+            bufferedBytes += record.size;
+        }
+        if (stopping) {
+            // Retried right away, so that they are outstanding again while shutdown waits for the calls
+            flushAll();
+        } else {
+            scheduleFlush();
+        }
+        if (givenUp > 0) {
+            release(givenUp);
         }
     }
 
-    private byte[] createMessage(TrackingMessage trackingMessage) {
+    private boolean spill(TrackingMessage trackingMessage) {
+        return spill(trackingMessage.getMessageId(), null, TrackingEventEncoder.encode(trackingMessage));
+    }
 
-        TrackingEventProtos.TrackingEvent.Builder trackingBuilder = TrackingEventProtos.TrackingEvent.newBuilder();
-        trackingBuilder.setChecksum(trackingMessage.getChecksum());
-        trackingBuilder.setCustomerId(trackingMessage.getCustomerId());
-        trackingBuilder.setProgramid(trackingMessage.getProgramId());
-        trackingBuilder.setUserAgent(trackingMessage.getUserAgent());
-        trackingBuilder.setCustomerId(trackingMessage.getCustomerId());
-        trackingBuilder.setCustomerName(trackingMessage.getCustomerName());
-        trackingBuilder.setMessageId(trackingMessage.getMessageId());
-        trackingBuilder.setProgramName(trackingMessage.getProgramName());
+    private boolean spill(PutRecordsRequestEntry entry) {
+        return spill(entry.partitionKey(), entry.explicitHashKey(), entry.data().asByteArrayUnsafe());
+    }
 
-        TrackingEventProtos.TrackingEvent trackingEvent = trackingBuilder.build();
-        return trackingEvent.toByteArray();
+    private boolean spill(String partitionKey, String explicitHashKey, byte[] data) {
+        if (spillLog == null) {
+            return false;
+        }
+        long suppressed;
+        try {
+            if (spillLog.append(partitionKey, explicitHashKey, data)) {
+                return true;
+            }
+            if ((suppressed = failureSampler.sample()) >= 0) {
+                LOGGER.severe("Spill log is full" + LogSampler.suppressed(suppressed));
+            }
+        } catch (IOException exc) {
+            if ((suppressed = failureSampler.sample()) >= 0) {
+                LOGGER.severe("Record could not be spilled: " + exc.getMessage() + LogSampler.suppressed(suppressed));
+            }
+        }
+        return false;
     }
 
-    private KinesisAsyncClient createClient() {
+    private void scheduleDrain(long delayMs) {
+        if (stopping) {
+            return;
+        }
+        drainTimerId = vertx.getDelegate().setTimer(delayMs, id -> {
+            drainTimerId = -1;
+            drainSpillLog();
+        });
+    }
+
+    /**
+     * Replays spilled records, one PutRecords call at a time, while the stream keeps up with live traffic.
+     * Failed calls are retried with exponential backoff.
+     */
+    private void drainSpillLog() {
+        if (spillLog.isEmpty() || inFlight >= maxInFlight / 2) {
+            scheduleDrain(drainIntervalMs);
+            return;
+        }
+
+        List<SpillLog.Entry> entries = spillLog.peek(maxBatchRecords, maxBatchBytes);
+        List<BufferedRecord> batch = new ArrayList<>(entries.size());
+        for (SpillLog.Entry entry : entries) {
+            batch.add(new BufferedRecord(entry.getPartitionKey(), entry.getExplicitHashKey(), entry.getData(), 1));
+        }
+        replayBatch = batch;
+
+        sendRecordsToKinesis(batch)
+                .onSuccess(failed -> {
+                    // Rejected records stay in the log and are replayed first next time
+                    Set<BufferedRecord> rejected = new HashSet<>(failed);
+                    List<SpillLog.Entry> written = new ArrayList<>(entries.size());
+                    for (int i = 0; i < batch.size(); i++) {
+                        if (!rejected.contains(batch.get(i))) {
+                            written.add(entries.get(i));
+                        }
+                    }
+                    commitSpilled(written);
+
+                    if (failed.isEmpty()) {
+                        drainBackoffMs = 0;
+                        scheduleDrain(1);
+                    } else {
+                        backOffDraining();
+                    }
+                })
+                .onFailure(err -> {
+                    LOGGER.warning("Replaying " + entries.size() + " spilled records failed: " + err.getMessage());
+                    backOffDraining();
+                });
+    }
+
+    private void commitSpilled(List<SpillLog.Entry> entries) {
+        try {
+            spillLog.commit(entries);
+        } catch (IOException exc) {
+            LOGGER.severe("Replayed records could not be removed from the spill log: " + exc.getMessage());
+        }
+    }
+
+    private void backOffDraining() {
+        drainBackoffMs = Math.min(Math.max(drainBackoffMs * 2, drainIntervalMs), drainMaxBackoffMs);
+        scheduleDrain(drainBackoffMs);
+    }
+
+    private static int userRecords(List<BufferedRecord> records) {
+        int userRecords = 0;
+        for (BufferedRecord record : records) {
+            userRecords += record.userRecords;
+        }
+        return userRecords;
+    }
+
+    private KinesisAsyncClient createClient(HttpClientMetrics httpClientMetrics) {
 
         ClientAsyncConfiguration clientConfiguration = ClientAsyncConfiguration.builder().build();
 
@@ -163,9 +768,48 @@ public class KinesisVerticle extends AbstractVerticle {
                 .asyncConfiguration(clientConfiguration)
                 .credentialsProvider(awsCredentialsProvider)
                 .region(myRegion)
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .addMetricPublisher(httpClientMetrics)
+                        .build())
                 .httpClientBuilder(NettyNioAsyncHttpClient.builder()
                         .maxConcurrency(100)
                         .maxPendingConnectionAcquires(10_000))
                 .build();
     }
+
+    private static final class BufferedRecord {
+        private final PutRecordsRequestEntry entry;
+        // Size as counted against the PutRecords limit: data plus partition key
+        private final int size;
+        // Tracking events in the record, more than one if it is an aggregated record
+        private final int userRecords;
+        private int attempts;
+        private int failedCalls;
+
+        private BufferedRecord(String partitionKey, String explicitHashKey, byte[] data, int userRecords) {
+            this.entry = PutRecordsRequestEntry.builder()
+                    .partitionKey(partitionKey)
+                    .explicitHashKey(explicitHashKey)
+                    .data(SdkBytes.fromByteArrayUnsafe(data))
+                    .build();
+            this.size = data.length + partitionKey.getBytes(StandardCharsets.UTF_8).length;
+            this.userRecords = userRecords;
+        }
+
+        private BufferedRecord(RecordAggregator.AggregatedRecord aggregated) {
+            this(aggregated.getPartitionKey(), aggregated.getExplicitHashKey(), aggregated.getData(), aggregated.getUserRecords());
+        }
+    }
+
+    private static final class WaitingMessage {
+        private final Message<TrackingMessage> message;
+        private final Span span;
+        private final long since;
+
+        private WaitingMessage(Message<TrackingMessage> message, Span span, long since) {
+            this.message = message;
+            this.span = span;
+            this.since = since;
+        }
+    }
 }
@@ -16,15 +16,44 @@
 
 package com.amazon.verticles;
 
+import com.amazon.redis.ClusterBatches;
+import com.amazon.redis.InvalidationMode;
+import com.amazon.redis.KeyPurge;
+import com.amazon.redis.ProgramFormat;
+import com.amazon.tracing.Span;
+import com.amazon.tracing.Tracer;
 import com.amazon.util.Constants;
-import com.amazon.vo.TrackingMessage;
+import com.amazon.util.LogSampler;
+import com.amazon.util.TrackingMetrics;
+import com.amazon.vo.Program;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.smallrye.mutiny.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.Promise;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.redis.client.Redis;
+import io.vertx.redis.client.RedisClientType;
+import io.vertx.redis.client.RedisConnection;
+import io.vertx.redis.client.RedisOptions;
+import io.vertx.redis.client.RedisReplicas;
+import io.vertx.redis.client.Request;
+import io.vertx.redis.client.Response;
 import jakarta.enterprise.context.ApplicationScoped;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import static com.amazon.util.Constants.*;
@@ -36,74 +65,407 @@ public class RedisVerticle extends AbstractVerticle {
 
     private static final Logger LOGGER = Logger.getLogger(RedisVerticle.class.getName());
 
+    private static final int DEFAULT_STORE_BATCH_SIZE = 1000;
+    private static final int DEFAULT_STORE_MAX_BATCHES_IN_FLIGHT = 2;
+    private static final int DEFAULT_LOOKUP_BATCH_SIZE = 64;
+    private static final long DEFAULT_LOOKUP_WINDOW_MS = 0;
+    private static final long DEFAULT_PUBSUB_MIN_BACKOFF_MS = 100;
+    private static final long DEFAULT_PUBSUB_MAX_BACKOFF_MS = 30000;
+    private static final int DEFAULT_PURGE_SCAN_COUNT = 1000;
+    private static final long DEFAULT_LOG_SAMPLE_INTERVAL_MS = 1000;
+
+    // Failure code of the reply to a lookup of a program record that can't be read
+    public static final int DECODE_FAILED = 422;
+
     private Redis redis;
+    private ProgramFormat format;
+    private InvalidationMode invalidation;
+    private RedisClientType mode;
+    private RedisOptions options;
+    // Prepended to the programId to form the key of a program record
+    private String keyPrefix;
+    private int purgeScanCount;
+    private Future<Long> purging;
+
+    // Dedicated connection of the pub/sub subscription, null while it is being (re)established
+    private RedisConnection pubSubConnection;
+    private long pubSubReconnectTimer = -1;
+    private long pubSubMinBackoffMs;
+    private long pubSubMaxBackoffMs;
+    private long pubSubBackoffMs;
+    private long pubSubReconnects;
+    private boolean stopped;
+
+    // Connection lookups are sent on with the tracking invalidation mode, null until it is established
+    private RedisConnection trackingConnection;
+    private Future<RedisConnection> trackingConnecting;
 
     EventBus eb;
 
+    // Stores waiting for the next batch; only accessed on the context of this verticle
+    private final Deque<Message<Program>> pendingStores = new ArrayDeque<>();
+    private boolean storeFlushScheduled;
+    private int storeBatchesInFlight;
+    private int storeBatchSize;
+    private int storeMaxBatchesInFlight;
+
+    // Lookups waiting for the next batch by programId; only accessed on the context of this verticle
+    private Map<String, List<Message<String>>> pendingLookups = new LinkedHashMap<>();
+    private boolean lookupFlushScheduled;
+    private long lookupFlushTimer = -1;
+    private int lookupBatchSize;
+    private long lookupWindowMs;
+    private final BatchSizeStats lookupBatchStats = new BatchSizeStats();
+    private Timer lookupBatchTimer;
+    // Spans of the traced lookups among the pending ones, ended once their batch completes
+    private List<Span> pendingSpans = new ArrayList<>();
+    private Tracer tracer;
+
+    // Messages logged per lookup, and per failed lookup
+    private LogSampler traceSampler;
+    private LogSampler failureSampler;
+
     void registerToEventBusForAdding(final EventBus eb) {
         eb
-                .<JsonObject>consumer(Constants.REDIS_STORE_EVENTBUS_ADDRESS)
+                .<Program>consumer(Constants.REDIS_STORE_EVENTBUS_ADDRESS)
                 .handler(message -> {
-                    TrackingMessage trackingMessage = Json.decodeValue(message.body().encode(), TrackingMessage.class);
-
-                    JsonObject obj = JsonObject.mapFrom(trackingMessage);
-                    LOGGER.info("Storing data in Redis: " + obj);
-                    redis
-                            .send(cmd(HMSET).arg(trackingMessage.getProgramId()).arg(obj))
-                            .onFailure(err -> LOGGER.info(err.getMessage()));
+                    pendingStores.addLast(message);
+
+                    if (pendingStores.size() >= storeBatchSize) {
+                        flushStores();
+                    } else if (!storeFlushScheduled) {
+                        // Stores arriving in the same burst are queued before this runs and share the batch
+                        storeFlushScheduled = true;
+                        context.runOnContext(v -> {
+                            storeFlushScheduled = false;
+                            flushStores();
+                        });
+                    }
                 });
     }
 
+    /**
+     * Writes pending stores with pipelined batches. Only a few batches are in flight at a time, so bulk
+     * loads leave connections of the pool to lookups.
+     */
+    private void flushStores() {
+        while (!pendingStores.isEmpty() && storeBatchesInFlight < storeMaxBatchesInFlight) {
+            List<Message<Program>> messages = new ArrayList<>(Math.min(pendingStores.size(), storeBatchSize));
+            List<Request> requests = new ArrayList<>(Math.min(pendingStores.size(), storeBatchSize));
+            List<String> keys = new ArrayList<>(Math.min(pendingStores.size(), storeBatchSize));
+            while (!pendingStores.isEmpty() && messages.size() < storeBatchSize) {
+                Message<Program> message = pendingStores.pollFirst();
+                Program program = message.body();
+                messages.add(message);
+                String key = key(program.getProgramId());
+                keys.add(key);
+                requests.add(format.store(key, program));
+            }
+
+            storeBatchesInFlight++;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Storing " + requests.size() + " programs in Redis");
+            }
+            batch(requests, keys)
+                    .onComplete(ar -> {
+                        storeBatchesInFlight--;
+                        if (ar.succeeded()) {
+                            messages.forEach(message -> message.reply("OK"));
+                        } else {
+                            LOGGER.info("Storing " + requests.size() + " programs failed: " + ar.cause().getMessage());
+                            messages.forEach(message -> message.fail(500, ar.cause().getMessage()));
+                        }
+                        flushStores();
+                    });
+        }
+    }
+
+    /**
+     * Deletes the program records with {@link KeyPurge} and replies with the number of keys deleted. A purge
+     * requested while one is running is answered once the running one is done.
+     */
     void registerToEventBusForPurging(final EventBus eb) {
         eb
                 .consumer(Constants.REDIS_PURGE_EVENTBUS_ADDRESS)
-                .handler(msg ->
-                        redis
-                                .send(cmd(FLUSHALL))
-                                .onFailure(err -> LOGGER.info(err.getMessage())));
+                .handler(message -> {
+                    if (purging == null) {
+                        purging = new KeyPurge(vertx.getDelegate(), redis, options, keyPrefix, purgeScanCount)
+                                .run()
+                                .onComplete(ar -> purging = null);
+                    }
+                    purging
+                            .onSuccess(message::reply)
+                            .onFailure(err -> {
+                                LOGGER.info("Purging Redis failed: " + err.getMessage());
+                                message.fail(500, err.getMessage());
+                            });
+                });
+    }
+
+    private String key(String programId) {
+        return keyPrefix.isEmpty() ? programId : keyPrefix + programId;
     }
 
     void registerToEventBusForCacheVerticle(final EventBus eb) {
         eb
-                .<JsonObject>consumer(Constants.REDIS_EVENTBUS_ADDRESS)
+                .<String>consumer(Constants.REDIS_EVENTBUS_ADDRESS)
                 .handler(message -> {
                     // Getting data from Redis and storing it in cache verticle
 
-                    TrackingMessage trackingMessage = Json.decodeValue(message.body().encode(), TrackingMessage.class);
-                    LOGGER.info(RedisVerticle.class.getSimpleName() + ": I have received a message: " + message.body());
-
-                    LOGGER.info("Looking for programId " + trackingMessage.getProgramId() + " in Redis");
-
-                    redis
-                            .send(cmd(HGETALL).arg(trackingMessage.getProgramId()))
-                            .onSuccess(result -> {
-                                if (null == result || result.size() == 0) {
-                                    LOGGER.info("No object found");
-                                    message.reply(new JsonObject());
-                                } else {
-                                    TrackingMessage msg = new TrackingMessage();
-                                    msg.setUserAgent(result.get("userAgent").toString());
-                                    msg.setProgramId(result.get("programId").toString());
-                                    msg.setProgramName(result.get("programName").toString());
-                                    msg.setChecksum(result.get("checksum").toString());
-                                    msg.setCustomerId(result.get("customerId").toInteger());
-                                    msg.setCustomerName(result.get("customerName").toString());
-                                    msg.setMessageId(trackingMessage.getMessageId());
-                                    msg.setValid(result.get("valid").toBoolean());
-
-                                    JsonObject msgResult = JsonObject.mapFrom(msg);
-
-                                    LOGGER.info("Result: " + msgResult);
-                                    message.reply(msgResult);
-                                }
-                            })
-                            .onFailure(err -> {
-                                LOGGER.info("No object found: " + err);
-                                message.reply(new JsonObject());
-                            });
+                    String programId = message.body();
+                    pendingLookups.computeIfAbsent(programId, key -> new ArrayList<>(1)).add(message);
+                    Span span = tracer.startConsumer("redis", message);
+                    if (span.isRecording()) {
+                        pendingSpans.add(span);
+                    }
+
+                    if (pendingLookups.size() >= lookupBatchSize) {
+                        flushLookups();
+                    } else if (!lookupFlushScheduled) {
+                        // Lookups arriving within the window are resolved with the same batch
+                        lookupFlushScheduled = true;
+                        if (lookupWindowMs > 0) {
+                            lookupFlushTimer = vertx.getDelegate().setTimer(lookupWindowMs, id -> flushLookups());
+                        } else {
+                            context.runOnContext(v -> flushLookups());
+                        }
+                    }
                 });
     }
 
+    /**
+     * Looks up all pending programIds with one pipelined batch.
+     */
+    private void flushLookups() {
+        if (lookupFlushScheduled) {
+            lookupFlushScheduled = false;
+            vertx.getDelegate().cancelTimer(lookupFlushTimer);
+        }
+        if (pendingLookups.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<Message<String>>> lookups = pendingLookups;
+        pendingLookups = new LinkedHashMap<>();
+        lookupBatchStats.record(lookups.size());
+        List<Span> spans = pendingSpans;
+        if (!spans.isEmpty()) {
+            pendingSpans = new ArrayList<>();
+        }
+
+        List<String> programIds = new ArrayList<>(lookups.keySet());
+        List<String> keys = new ArrayList<>(programIds.size());
+        List<Request> requests = new ArrayList<>(programIds.size());
+        for (String programId : programIds) {
+            String key = key(programId);
+            keys.add(key);
+            requests.add(format.lookup(key));
+        }
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Looking for " + requests.size() + " programIds in Redis");
+        }
+
+        long start = System.nanoTime();
+        lookupBatch(requests, keys)
+                .onComplete(ar -> {
+                    lookupBatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    for (Span span : spans) {
+                        span.setAttribute("redis.batch.size", programIds.size()).end(ar.cause());
+                    }
+                })
+                .onSuccess(results -> {
+                    for (int i = 0; i < programIds.size(); i++) {
+                        replyToLookups(programIds.get(i), lookups.get(programIds.get(i)), format, results.get(i));
+                    }
+                })
+                .onFailure(err -> {
+                    if (ProgramFormat.isWrongType(err)) {
+                        // Some of the keys hold the other format, which fails the whole batch
+                        lookupEither(lookups);
+                    } else {
+                        lookups.values().forEach(messages -> replyToFailedLookups(messages, err));
+                    }
+                });
+    }
+
+    /**
+     * Sends a batch of lookups, on the tracking connection if invalidations are tracked.
+     */
+    private Future<List<Response>> lookupBatch(List<Request> requests, List<String> keys) {
+        if (invalidation == InvalidationMode.TRACKING) {
+            return trackingConnection().compose(conn -> conn.batch(requests));
+        }
+        return batch(requests, keys);
+    }
+
+    /**
+     * Sends a pipelined batch of commands, each working on the key at the same index. On a cluster the
+     * batch is split by hash slot.
+     */
+    private Future<List<Response>> batch(List<Request> requests, List<String> keys) {
+        if (mode == RedisClientType.CLUSTER) {
+            return redis
+                    .connect()
+                    .compose(conn -> ClusterBatches.batch(conn, requests, keys).onComplete(ar -> conn.close()));
+        }
+        return redis.batch(requests);
+    }
+
+    /**
+     * Looks up every program on its own, in the configured format and in the other format if the key holds
+     * that one. The lookups are pipelined on one connection rather than queueing for the pool one by one.
+     */
+    private void lookupEither(Map<String, List<Message<String>>> lookups) {
+        boolean tracking = invalidation == InvalidationMode.TRACKING;
+        (tracking ? trackingConnection() : redis.connect())
+                .onSuccess(conn -> {
+                    List<Future<Void>> replies = new ArrayList<>(lookups.size());
+                    lookups.forEach((programId, messages) -> replies.add(lookupEither(conn, programId, messages)));
+                    if (!tracking) {
+                        Future.join(replies).onComplete(ar -> conn.close());
+                    }
+                })
+                .onFailure(err -> lookups.values().forEach(messages -> replyToFailedLookups(messages, err)));
+    }
+
+    private Future<Void> lookupEither(RedisConnection conn, String programId, List<Message<String>> messages) {
+        Promise<Void> replied = Promise.promise();
+        conn
+                .send(format.lookup(key(programId)))
+                .onSuccess(result -> {
+                    replyToLookups(programId, messages, format, result);
+                    replied.complete();
+                })
+                .onFailure(err -> {
+                    if (ProgramFormat.isWrongType(err)) {
+                        conn
+                                .send(format.other().lookup(key(programId)))
+                                .onSuccess(result -> replyToLookups(programId, messages, format.other(), result))
+                                .onFailure(otherErr -> replyToFailedLookups(messages, otherErr))
+                                .onComplete(ar -> replied.complete());
+                    } else {
+                        replyToFailedLookups(messages, err);
+                        replied.complete();
+                    }
+                });
+        return replied.future();
+    }
+
+    private void replyToFailedLookups(List<Message<String>> messages, Throwable err) {
+        // Failed, not empty, so that the cache neither remembers the programs as unknown nor trusts Redis
+        long suppressed = failureSampler.sample();
+        if (suppressed >= 0) {
+            LOGGER.warning("Looking up programs failed: " + err + LogSampler.suppressed(suppressed));
+        }
+        messages.forEach(message -> message.fail(500, err.getMessage()));
+    }
+
+    private void replyToLookups(String programId, List<Message<String>> messages, ProgramFormat resultFormat, Response result) {
+        Program program;
+        try {
+            program = resultFormat.read(result);
+        } catch (RuntimeException exc) {
+            // Failed, not empty, so that the cache doesn't remember a program that exists as unknown
+            long suppressed = failureSampler.sample();
+            if (suppressed >= 0) {
+                LOGGER.warning("Can't read program " + programId + ": " + exc.getMessage() + LogSampler.suppressed(suppressed));
+            }
+            messages.forEach(message -> message.fail(DECODE_FAILED, "Can't read program " + programId + ": " + exc.getMessage()));
+            return;
+        }
+
+        long suppressed;
+        if (LOGGER.isLoggable(Level.FINE) && (suppressed = traceSampler.sample()) >= 0) {
+            LOGGER.fine((program == null ? "No object found for " + programId : "Result: " + program) + LogSampler.suppressed(suppressed));
+        }
+        for (Message<String> message : messages) {
+            message.reply(program);
+        }
+    }
+
+    void registerToEventBusForStats(final EventBus eb) {
+        eb
+                .consumer(Constants.REDIS_STATS_EVENTBUS_ADDRESS)
+                .handler(message -> message.reply(new JsonObject()
+                        .put("lookupBatches", lookupBatchStats.toJson())
+                        .put("pubSub", new JsonObject()
+                                .put("subscribed", pubSubConnection != null)
+                                .put("reconnects", pubSubReconnects))));
+    }
+
+    /**
+     * Returns the connection lookups are tracked on, connecting it on first use and after it was lost.
+     */
+    private Future<RedisConnection> trackingConnection() {
+        if (trackingConnection != null) {
+            return Future.succeededFuture(trackingConnection);
+        }
+        if (trackingConnecting == null) {
+            trackingConnecting = redis
+                    .connect()
+                    .compose(conn -> conn
+                            .send(cmd(CLIENT).arg("TRACKING").arg("ON"))
+                            .map(conn)
+                            .onFailure(err -> conn.close()))
+                    .onComplete(ar -> {
+                        trackingConnecting = null;
+                        if (ar.succeeded()) {
+                            LOGGER.info("Tracking the keys looked up in Redis");
+                            RedisConnection conn = ar.result();
+                            conn.handler(this::handleInvalidation);
+                            conn.exceptionHandler(err -> trackingLost(conn, err.getMessage()));
+                            conn.endHandler(v -> trackingLost(conn, "connection closed"));
+                            trackingConnection = conn;
+                        }
+                    });
+        }
+        return trackingConnecting;
+    }
+
+    /**
+     * Invalidations of keys that change while no connection tracks them are lost, so the whole near cache
+     * is dropped once the tracking connection is gone. The next lookup connects again.
+     */
+    private void trackingLost(RedisConnection conn, String reason) {
+        if (trackingConnection != conn) {
+            return;
+        }
+        LOGGER.warning("Lost the Redis tracking connection (" + reason + "), invalidating all cached programs");
+        trackingConnection = null;
+        conn.close();
+        eb.send(CACHE_INVALIDATE_EVENTBUS_ADDRESS, null);
+    }
+
+    /**
+     * Handles the {@code invalidate} push messages of the tracking connection. They carry the invalidated
+     * keys, or no keys at all if Redis was flushed.
+     */
+    private void handleInvalidation(Response push) {
+        if (push.size() < 2 || !"invalidate".equals(push.get(0).toString())) {
+            return;
+        }
+
+        Response keys = push.get(1);
+        if (keys == null) {
+            LOGGER.info("Redis was flushed, invalidating all cached programs");
+            eb.send(CACHE_INVALIDATE_EVENTBUS_ADDRESS, null);
+            return;
+        }
+
+        JsonArray programIds = new JsonArray(new ArrayList<>(keys.size()));
+        for (Response key : keys) {
+            String name = key.toString();
+            if (name.startsWith(keyPrefix)) {
+                programIds.add(name.substring(keyPrefix.length()));
+            }
+        }
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Invalidating " + programIds);
+        }
+        eb.send(CACHE_INVALIDATE_EVENTBUS_ADDRESS, programIds);
+    }
+
     void registerToEventBusForPubSub(final EventBus eb) {
 
         // register a handler for the incoming message the naming the Redis module will use is base address + '.' + redis channel
@@ -112,7 +474,9 @@ public class RedisVerticle extends AbstractVerticle {
                 .handler(received -> {
                     // do whatever you need to do with your message
                     JsonObject value = received.body().getJsonObject("value");
-                    LOGGER.info("Received the following message: " + value);
+                    if (LOGGER.isLoggable(Level.FINE)) {
+                        LOGGER.fine("Received the following message: " + value);
+                    }
                     // the value is a JSON doc with the following properties
                     // channel - The channel to which this message was sent
                     // pattern - Pattern is present if you use psubscribe command and is the pattern that matched this message channel
@@ -120,20 +484,62 @@ public class RedisVerticle extends AbstractVerticle {
 
                     String message = value.getString("message");
 
-                    JsonObject jsonObject = new JsonObject(message);
-                    eb.send(CACHE_REDIS_EVENTBUS_ADDRESS, jsonObject);
+                    Program program = Json.decodeValue(message, Program.class);
+                    eb.send(CACHE_REDIS_EVENTBUS_ADDRESS, program);
                 });
 
-        // this is pub/sub, so we need to get a dedicated connection:
+        subscribe(false);
+    }
+
+    /**
+     * Opens the dedicated pub/sub connection and subscribes to the update channel. Whenever that fails or
+     * the connection is lost, it is retried with exponential backoff. Updates published in the meantime
+     * were missed, so after a resubscribe all cached programs are invalidated and reloaded from Redis on
+     * their next request.
+     */
+    private void subscribe(boolean resync) {
+        pubSubReconnectTimer = -1;
         redis.connect()
                 .onSuccess(conn -> {
+                    pubSubConnection = conn;
+                    conn.exceptionHandler(err -> pubSubLost(conn, err.getMessage()));
+                    conn.endHandler(v -> pubSubLost(conn, "connection closed"));
                     conn
                             .send(cmd(SUBSCRIBE).arg(Constants.REDIS_PUBSUB_CHANNEL))
-                            .onSuccess(res -> LOGGER.info("Subscribed to " + Constants.REDIS_PUBSUB_CHANNEL))
-                            .onFailure(err -> LOGGER.info("Subscription failed: " + err.getMessage()));
-
+                            .onSuccess(res -> {
+                                LOGGER.info("Subscribed to " + Constants.REDIS_PUBSUB_CHANNEL);
+                                pubSubBackoffMs = 0;
+                                if (resync) {
+                                    LOGGER.info("Updates may have been missed, invalidating all cached programs");
+                                    eb.send(CACHE_INVALIDATE_EVENTBUS_ADDRESS, null);
+                                }
+                            })
+                            .onFailure(err -> pubSubLost(conn, "subscription failed: " + err.getMessage()));
                 })
-                .onFailure(err -> LOGGER.info("Failure during connection: " + err.getMessage()));
+                .onFailure(err -> {
+                    LOGGER.info("Failure during connection: " + err.getMessage());
+                    resubscribe();
+                });
+    }
+
+    private void pubSubLost(RedisConnection conn, String reason) {
+        if (pubSubConnection != conn) {
+            return;
+        }
+        LOGGER.warning("Lost the Redis pub/sub connection (" + reason + ")");
+        pubSubConnection = null;
+        conn.close();
+        resubscribe();
+    }
+
+    private void resubscribe() {
+        if (stopped) {
+            return;
+        }
+        pubSubReconnects++;
+        pubSubBackoffMs = Math.min(Math.max(pubSubBackoffMs * 2, pubSubMinBackoffMs), pubSubMaxBackoffMs);
+        LOGGER.info("Subscribing to " + Constants.REDIS_PUBSUB_CHANNEL + " again in " + pubSubBackoffMs + " ms");
+        pubSubReconnectTimer = vertx.getDelegate().setTimer(pubSubBackoffMs, id -> subscribe(true));
     }
 
     @Override
@@ -141,17 +547,49 @@ public class RedisVerticle extends AbstractVerticle {
         LOGGER.info("Starting " + this.getClass().getName());
 
         eb = vertx.eventBus().getDelegate();
-        String envRedisHost = System.getenv(REDIS_HOST);
-        String envRedisPort = System.getenv(REDIS_PORT);
+        registerMetrics(TrackingMetrics.registry());
+        tracer = Tracer.get(vertx.getDelegate(), config());
+        storeBatchSize = Math.max(config().getInteger(REDIS_STORE_BATCH_SIZE, DEFAULT_STORE_BATCH_SIZE), 1);
+        storeMaxBatchesInFlight = Math.max(config().getInteger(REDIS_STORE_MAX_BATCHES_IN_FLIGHT, DEFAULT_STORE_MAX_BATCHES_IN_FLIGHT), 1);
+        lookupBatchSize = Math.max(config().getInteger(REDIS_LOOKUP_BATCH_SIZE, DEFAULT_LOOKUP_BATCH_SIZE), 1);
+        lookupWindowMs = config().getLong(REDIS_LOOKUP_WINDOW_MS, DEFAULT_LOOKUP_WINDOW_MS);
+        format = ProgramFormat.parse(config().getString(REDIS_FORMAT, ProgramFormat.HASH.name()));
+        pubSubMinBackoffMs = Math.max(config().getLong(REDIS_PUBSUB_MIN_BACKOFF_MS, DEFAULT_PUBSUB_MIN_BACKOFF_MS), 1);
+        pubSubMaxBackoffMs = Math.max(config().getLong(REDIS_PUBSUB_MAX_BACKOFF_MS, DEFAULT_PUBSUB_MAX_BACKOFF_MS), pubSubMinBackoffMs);
+        keyPrefix = config().getString(REDIS_KEY_PREFIX, "");
+        purgeScanCount = Math.max(config().getInteger(REDIS_PURGE_SCAN_COUNT, DEFAULT_PURGE_SCAN_COUNT), 1);
+        long sampleIntervalMs = config().getLong(LOG_SAMPLE_INTERVAL_MS, DEFAULT_LOG_SAMPLE_INTERVAL_MS);
+        traceSampler = new LogSampler(sampleIntervalMs);
+        failureSampler = new LogSampler(sampleIntervalMs);
+        invalidation = InvalidationMode.parse(config().getString(CACHE_INVALIDATION, InvalidationMode.PUBSUB.name()));
+
+        mode = RedisClientType.valueOf(config().getString(REDIS_MODE, RedisClientType.STANDALONE.name()).trim().toUpperCase());
+        RedisReplicas useReplicas = RedisReplicas.valueOf(config().getString(REDIS_USE_REPLICAS, RedisReplicas.ALWAYS.name()).trim().toUpperCase());
+
+        List<String> endpoints = new ArrayList<>();
+        for (String endpoint : config().getString(REDIS_ENDPOINTS, "").split(",")) {
+            if (!endpoint.isBlank()) {
+                endpoints.add(endpoint.trim());
+            }
+        }
+        if (endpoints.isEmpty()) {
+            String envRedisHost = System.getenv(REDIS_HOST);
+            String envRedisPort = System.getenv(REDIS_PORT);
 
-        String redisHost = envRedisHost == null ? "localhost" : envRedisHost;
-        int redisPort = envRedisPort == null ? 6379 : Integer.parseInt(envRedisPort);
+            String redisHost = envRedisHost == null ? "localhost" : envRedisHost;
+            int redisPort = envRedisPort == null ? 6379 : Integer.parseInt(envRedisPort);
 
-        String redisURI = String.format("redis://%s:%d", redisHost, redisPort);
+            endpoints.add(String.format("redis://%s:%d", redisHost, redisPort));
+        }
 
-        LOGGER.info("--> Using Redis Connection URI " + redisURI);
+        LOGGER.info("--> Using Redis " + mode + " " + endpoints + (mode == RedisClientType.STANDALONE ? "" : ", reading from replicas: " + useReplicas));
 
-        redis = Redis.createClient(vertx.getDelegate(), redisURI);
+        // Read-only commands go to replicas as configured, all others to the primaries
+        options = new RedisOptions()
+                .setType(mode)
+                .setEndpoints(endpoints)
+                .setUseReplicas(useReplicas);
+        redis = Redis.createClient(vertx.getDelegate(), options);
         redis.connect()
                 .onSuccess(res -> this.registerToEventBus())
                 .onFailure(err -> LOGGER.info("Redis connection isn't working: " + err.getMessage()));
@@ -162,14 +600,83 @@ public class RedisVerticle extends AbstractVerticle {
 
         this.registerToEventBusForAdding(eb);
         this.registerToEventBusForCacheVerticle(eb);
-        this.registerToEventBusForPubSub(eb);
+        if (invalidation == InvalidationMode.TRACKING && mode != RedisClientType.STANDALONE) {
+            // Invalidations are pushed on the connection that read the key, which is one node of many here
+            LOGGER.warning("Client tracking needs a standalone Redis, using pub/sub for updates");
+            invalidation = InvalidationMode.PUBSUB;
+        }
+        if (invalidation == InvalidationMode.TRACKING) {
+            trackingConnection().onFailure(err -> {
+                LOGGER.warning("Can't enable client tracking, using pub/sub for updates: " + err.getMessage());
+                invalidation = InvalidationMode.PUBSUB;
+                this.registerToEventBusForPubSub(eb);
+            });
+        } else {
+            this.registerToEventBusForPubSub(eb);
+        }
         this.registerToEventBusForPurging(eb);
+        this.registerToEventBusForStats(eb);
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        lookupBatchTimer = TrackingMetrics.stage("redis.batch");
+        Gauge.builder("tracking.redis.pending.lookups", this, verticle -> verticle.pendingLookups.size())
+                .description("Cache misses waiting for the next lookup batch")
+                .register(registry);
+        Gauge.builder("tracking.redis.pending.stores", this, verticle -> verticle.pendingStores.size())
+                .description("Programs of /cache/fill waiting for the next store batch")
+                .register(registry);
+        Gauge.builder("tracking.redis.store.batches.in.flight", this, verticle -> verticle.storeBatchesInFlight)
+                .register(registry);
+        Gauge.builder("tracking.redis.pubsub.subscribed", this, verticle -> verticle.pubSubConnection != null ? 1 : 0)
+                .register(registry);
     }
 
     @Override
     public void stop() {
+        stopped = true;
+        vertx.getDelegate().cancelTimer(pubSubReconnectTimer);
+        if (pubSubConnection != null) {
+            pubSubConnection.close();
+        }
+        if (trackingConnection != null) {
+            trackingConnection.close();
+        }
         if (redis != null) {
             redis.close();
         }
     }
+
+    /**
+     * Number and size of the lookup batches, with a histogram of the sizes in powers of two.
+     */
+    private static final class BatchSizeStats {
+        private final long[] histogram = new long[Integer.SIZE];
+        private long batches;
+        private long lookups;
+        private int maxSize;
+
+        private void record(int size) {
+            batches++;
+            lookups += size;
+            maxSize = Math.max(maxSize, size);
+            // Bucket i counts sizes up to 2^i
+            histogram[Integer.SIZE - Integer.numberOfLeadingZeros(size - 1)]++;
+        }
+
+        private JsonObject toJson() {
+            JsonObject sizes = new JsonObject();
+            for (int i = 0; i < histogram.length; i++) {
+                if (histogram[i] > 0) {
+                    sizes.put("le" + (1L << i), histogram[i]);
+                }
+            }
+            return new JsonObject()
+                    .put("count", batches)
+                    .put("lookups", lookups)
+                    .put("averageSize", batches == 0 ? 0d : (double) lookups / batches)
+                    .put("maxSize", maxSize)
+                    .put("sizes", sizes);
+        }
+    }
 }
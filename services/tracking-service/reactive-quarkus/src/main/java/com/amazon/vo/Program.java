@@ -0,0 +1,123 @@
+/*
+ * Copyright 2010-2024 Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License").
+ * You may not use this file except in compliance with the License.
+ * A copy of the License is located at
+ *
+ *  http://aws.amazon.com/apache2.0
+ *
+ * or in the "license" file accompanying this file. This file is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ *
+ */
+
+package com.amazon.vo;
+
+import com.amazon.codec.TrackingEventEncoder;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Program and customer data of a tracking program as stored in Redis and in the near cache.
+ * <p>
+ * Instances are immutable, so a cached program can be handed to any number of requests and
+ * event loops at the same time without copying.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class Program {
+    private final String programId;
+    private final String programName;
+    private final String checksum;
+    private final Integer customerId;
+    private final String customerName;
+    private final boolean valid;
+
+    // Program fields of the TrackingEvent protobuf message, encoded on first use
+    private volatile byte[] trackingEventFields;
+
+    @JsonCreator
+    public Program(@JsonProperty("programId") String programId,
+                   @JsonProperty("programName") String programName,
+                   @JsonProperty("checksum") String checksum,
+                   @JsonProperty("customerId") Integer customerId,
+                   @JsonProperty("customerName") String customerName,
+                   @JsonProperty("valid") boolean valid) {
+        this.programId = programId == null ? "" : programId;
+        this.programName = programName == null ? "" : programName;
+        this.checksum = checksum == null ? "" : checksum;
+        this.customerId = customerId;
+        this.customerName = customerName == null ? "" : customerName;
+        this.valid = valid;
+    }
+
+    public String getProgramId() {
+        return programId;
+    }
+
+    public String getProgramName() {
+        return programName;
+    }
+
+    public String getChecksum() {
+        return checksum;
+    }
+
+    public Integer getCustomerId() {
+        return customerId;
+    }
+
+    public String getCustomerName() {
+        return customerName;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * The fields of a {@code TrackingEvent} protobuf message that come from this program, see
+     * {@link TrackingEventEncoder}. The array must not be modified.
+     */
+    @JsonIgnore
+    public byte[] getTrackingEventFields() {
+        byte[] fields = trackingEventFields;
+        if (fields == null) {
+            // Concurrent callers may encode it twice, with the same result
+            fields = TrackingEventEncoder.encodeProgramFields(this);
+            trackingEventFields = fields;
+        }
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+        return "Program{" +
+                "programId='" + programId + '\'' +
+                ", programName='" + programName + '\'' +
+                ", checksum='" + checksum + '\'' +
+                ", customerId=" + customerId +
+                ", customerName='" + customerName + '\'' +
+                ", valid=" + valid +
+                '}';
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        Program that = (Program) o;
+
+        return programId.equals(that.programId);
+    }
+
+    @Override
+    public int hashCode() {
+        return programId.hashCode();
+    }
+}
@@ -16,121 +16,67 @@
 
 package com.amazon.vo;
 
-public class TrackingMessage {
-    private String userAgent = "";
-    private String programId = "";
-    private String programName = "";
-    private String checksum = "";
-    private Integer customerId;
-    private String customerName = "";
-    private String messageId = "";
-    private boolean isValid;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 
-    public TrackingMessage() {
+/**
+ * A single tracking event: the per-request fields plus a reference to the (shared) {@link Program}.
+ */
+@JsonPropertyOrder({"userAgent", "programId", "programName", "checksum", "customerId", "customerName", "messageId", "valid"})
+public final class TrackingMessage {
+    private final String messageId;
+    private final String userAgent;
+    private final Program program;
+
+    public TrackingMessage(String messageId, String userAgent, Program program) {
+        this.messageId = messageId == null ? "" : messageId;
+        this.userAgent = userAgent == null ? "" : userAgent;
+        this.program = program;
     }
 
-    public TrackingMessage(String userAgent, String programId, String checksum, Integer customerId,
-                           String customerName, boolean isValid, String messageId, String programName) {
-        this.userAgent = userAgent;
-        this.programId = programId;
-        this.checksum = checksum;
-        this.customerId = customerId;
-        this.customerName = customerName;
-        this.isValid = isValid;
-        this.messageId = messageId;
-        this.programName = programName;
+    public String getMessageId() {
+        return messageId;
     }
 
     public String getUserAgent() {
         return userAgent;
     }
 
-    public void setUserAgent(String userAgent) {
-        this.userAgent = userAgent;
+    @JsonIgnore
+    public Program getProgram() {
+        return program;
     }
 
     public String getProgramId() {
-        return programId;
+        return program.getProgramId();
     }
 
-    public void setProgramId(String programId) {
-        this.programId = programId;
+    public String getProgramName() {
+        return program.getProgramName();
     }
 
     public String getChecksum() {
-        return checksum;
-    }
-
-    public void setChecksum(String checksum) {
-        this.checksum = checksum;
+        return program.getChecksum();
     }
 
     public Integer getCustomerId() {
-        return customerId;
-    }
-
-    public void setCustomerId(Integer customerId) {
-        this.customerId = customerId;
+        return program.getCustomerId();
     }
 
     public String getCustomerName() {
-        return customerName;
-    }
-
-    public void setCustomerName(String customerName) {
-        this.customerName = customerName;
+        return program.getCustomerName();
     }
 
     public boolean isValid() {
-        return isValid;
-    }
-
-    public void setValid(boolean valid) {
-        isValid = valid;
-    }
-
-    public String getMessageId() {
-        return messageId;
-    }
-
-    public void setMessageId(String messageId) {
-        this.messageId = messageId;
-    }
-
-    public String getProgramName() {
-        return programName;
-    }
-
-    public void setProgramName(String programName) {
-        this.programName = programName;
+        return program.isValid();
     }
 
     @Override
     public String toString() {
         return "TrackingMessage{" +
                 "userAgent='" + userAgent + '\'' +
-                ", programId='" + programId + '\'' +
-                ", programName='" + programName + '\'' +
-                ", checksum='" + checksum + '\'' +
-                ", customerId=" + customerId +
-                ", customerName='" + customerName + '\'' +
                 ", messageId='" + messageId + '\'' +
-                ", isValid=" + isValid +
+                ", program=" + program +
                 '}';
     }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        TrackingMessage that = (TrackingMessage) o;
-
-        return getProgramId() != null ? getProgramId().equals(that.getProgramId()) : that.getProgramId() == null;
-    }
-
-    @Override
-    public int hashCode() {
-        return getProgramId() != null ? getProgramId().hashCode() : 0;
-    }
 }